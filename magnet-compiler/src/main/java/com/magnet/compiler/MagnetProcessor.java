@@ -0,0 +1,541 @@
+package com.magnet.compiler;
+
+import com.magnet.annotations.Body;
+import com.magnet.annotations.CachePolicy;
+import com.magnet.annotations.CircuitBreakerPolicy;
+import com.magnet.annotations.DELETE;
+import com.magnet.annotations.Destination;
+import com.magnet.annotations.FormMap;
+import com.magnet.annotations.GET;
+import com.magnet.annotations.GzipRequest;
+import com.magnet.annotations.HeaderMap;
+import com.magnet.annotations.Idempotent;
+import com.magnet.annotations.POST;
+import com.magnet.annotations.PUT;
+import com.magnet.annotations.Part;
+import com.magnet.annotations.Path;
+import com.magnet.annotations.Query;
+import com.magnet.annotations.RateLimit;
+import com.magnet.annotations.Retry;
+import com.magnet.annotations.Timeout;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates {@code <Interface>_MagnetImpl} for every interface with {@code @GET},
+ * {@code @POST}, {@code @PUT} or {@code @DELETE} methods. The generated class builds each
+ * method's {@code ServiceMethod} from values read here, on first call, so that
+ * {@code Magnet.create()} needs neither a {@link java.lang.reflect.Proxy} nor annotation
+ * reflection. Interfaces it cannot implement (generic ones, private ones) are left to the
+ * reflective path with a warning.
+ */
+@SupportedAnnotationTypes({
+        "com.magnet.annotations.GET",
+        "com.magnet.annotations.POST",
+        "com.magnet.annotations.PUT",
+        "com.magnet.annotations.DELETE"
+})
+public final class MagnetProcessor extends AbstractProcessor {
+
+    private static final String SUFFIX = "_MagnetImpl";
+
+    /** A {@code {name}} slot in a relative url, as the runtime's UrlTemplate reads it. */
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([a-zA-Z][a-zA-Z0-9_-]*)\\}");
+
+    private static final String SERVICE_METHOD = "com.magnet.processor.ServiceMethod";
+    private static final String MAGNET = "com.magnet.processor.Magnet";
+    private static final String TYPE_TOKEN = "com.google.gson.reflect.TypeToken";
+
+    private Elements elements;
+    private Types types;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+
+        Set<TypeElement> services = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                Element enclosing = element.getEnclosingElement();
+                if (element.getKind() == ElementKind.METHOD && enclosing.getKind() == ElementKind.INTERFACE) {
+                    services.add((TypeElement) enclosing);
+                }
+            }
+        }
+
+        for (TypeElement service : services) {
+            List<ExecutableElement> methods = serviceMethods(service);
+            if (methods != null && validate(service, methods)) {
+                write(service, methods);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the abstract methods the generated class has to implement, or null if it
+     * cannot implement them.
+     */
+    private List<ExecutableElement> serviceMethods(TypeElement service) {
+        if (!service.getTypeParameters().isEmpty()) {
+            warn(service, "Generic service interfaces are implemented by reflection");
+            return null;
+        }
+        for (Element e = service; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                warn(service, "Private service interfaces are implemented by reflection");
+                return null;
+            }
+        }
+
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (Element member : elements.getAllMembers(service)) {
+            if (member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            ExecutableType type = memberType(service, method);
+            boolean generic = !method.getTypeParameters().isEmpty() || hasTypeVariable(type.getReturnType());
+            for (TypeMirror parameterType : type.getParameterTypes()) {
+                generic |= hasTypeVariable(parameterType);
+            }
+            if (generic) {
+                warn(method, "Generic service methods are implemented by reflection");
+                return null;
+            }
+            methods.add(method);
+        }
+        return methods;
+    }
+
+    private boolean validate(TypeElement service, List<ExecutableElement> methods) {
+        boolean valid = true;
+        for (ExecutableElement method : methods) {
+            String relativeUrl = null;
+            int httpMethods = 0;
+            if (method.getAnnotation(GET.class) != null) {
+                relativeUrl = method.getAnnotation(GET.class).value();
+                httpMethods++;
+            }
+            if (method.getAnnotation(POST.class) != null) {
+                relativeUrl = method.getAnnotation(POST.class).value();
+                httpMethods++;
+            }
+            if (method.getAnnotation(PUT.class) != null) {
+                relativeUrl = method.getAnnotation(PUT.class).value();
+                httpMethods++;
+            }
+            if (method.getAnnotation(DELETE.class) != null) {
+                relativeUrl = method.getAnnotation(DELETE.class).value();
+                httpMethods++;
+            }
+            if (httpMethods != 1) {
+                valid = error(method, "Service methods need exactly one of @GET, @POST, @PUT or @DELETE");
+            }
+            if (memberType(service, method).getReturnType().getKind() == TypeKind.VOID) {
+                valid = error(method, "Service methods cannot return void");
+            }
+
+            boolean hasBody = false;
+            boolean hasPart = false;
+            int destinations = 0;
+            Set<String> pathNames = new HashSet<>();
+            for (VariableElement parameter : method.getParameters()) {
+                int count = 0;
+                if (parameter.getAnnotation(Path.class) != null) {
+                    String name = parameter.getAnnotation(Path.class).value();
+                    if (relativeUrl != null && !relativeUrl.replace(" ", "").contains("{" + name + "}")) {
+                        valid = error(parameter, "No such placeholder in relative url: " + name);
+                    }
+                    pathNames.add(name);
+                    count++;
+                }
+                if (parameter.getAnnotation(Query.class) != null) {
+                    count++;
+                }
+                if (parameter.getAnnotation(HeaderMap.class) != null) {
+                    count++;
+                }
+                if (parameter.getAnnotation(Body.class) != null) {
+                    hasBody = true;
+                    count++;
+                }
+                if (parameter.getAnnotation(FormMap.class) != null) {
+                    hasBody = true;
+                    count++;
+                }
+                if (parameter.getAnnotation(Part.class) != null) {
+                    hasPart = true;
+                    count++;
+                }
+                if (parameter.getAnnotation(Destination.class) != null) {
+                    String type = types.erasure(parameter.asType()).toString();
+                    if (!type.equals("java.io.File") && !type.equals("java.nio.file.Path")) {
+                        valid = error(parameter, "@Destination parameter must be a File or Path");
+                    }
+                    destinations++;
+                    count++;
+                }
+                if (count != 1) {
+                    valid = error(parameter, "Parameters need exactly one of @Path, @Query, @HeaderMap, "
+                            + "@Body, @FormMap, @Part or @Destination");
+                }
+            }
+            if (destinations > 1) {
+                valid = error(method, "Only one @Destination parameter is allowed");
+            }
+            if (relativeUrl != null) {
+                Matcher placeholder = PLACEHOLDER.matcher(relativeUrl.replace(" ", ""));
+                while (placeholder.find()) {
+                    if (!pathNames.contains(placeholder.group(1))) {
+                        valid = error(method, "No @Path parameter for placeholder {" + placeholder.group(1) + "}");
+                    }
+                }
+            }
+            if (method.getAnnotation(GzipRequest.class) != null && (!hasBody || hasPart)) {
+                valid = error(method, "@GzipRequest needs a @Body or @FormMap parameter");
+            }
+            Timeout timeout = method.getAnnotation(Timeout.class);
+            if (timeout != null && (timeout.connectMillis() < -1 || timeout.readMillis() < -1
+                    || timeout.callMillis() < -1)) {
+                valid = error(method, "Timeouts must be -1 or more");
+            }
+            RateLimit rateLimit = method.getAnnotation(RateLimit.class);
+            if (rateLimit != null && (!(rateLimit.permitsPerSecond() > 0) || Double.isInfinite(rateLimit.permitsPerSecond())
+                    || rateLimit.burst() < 1)) {
+                valid = error(method, "@RateLimit needs a finite permitsPerSecond > 0 and burst >= 1");
+            }
+            Retry retry = method.getAnnotation(Retry.class);
+            if (retry != null && (retry.maxAttempts() < -1 || retry.maxAttempts() == 0
+                    || retry.initialBackoffMillis() < -1 || retry.maxBackoffMillis() < -1)) {
+                valid = error(method, "@Retry values must be -1 or more, and maxAttempts at least 1");
+            }
+        }
+        return valid;
+    }
+
+    private void write(TypeElement service, List<ExecutableElement> methods) {
+        PackageElement pkg = elements.getPackageOf(service);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(service).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                .replace('$', '_') + SUFFIX;
+        String serviceType = types.erasure(service.asType()).toString();
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("@javax.annotation.processing.Generated(\"").append(MagnetProcessor.class.getName()).append("\")\n");
+        out.append("@SuppressWarnings(\"unchecked\")\n");
+        out.append(isPublic(service) ? "public " : "").append("final class ").append(simpleName)
+                .append(" implements ").append(serviceType).append(" {\n\n");
+        out.append("    private final ").append(MAGNET).append(" magnet;\n");
+        for (int m = 0; m < methods.size(); m++) {
+            out.append("    private volatile ").append(SERVICE_METHOD).append(" method").append(m).append(";\n");
+        }
+        out.append("\n    public ").append(simpleName).append("(").append(MAGNET).append(" magnet) {\n");
+        out.append("        this.magnet = magnet;\n");
+        out.append("    }\n");
+
+        for (int m = 0; m < methods.size(); m++) {
+            writeMethod(out, service, serviceType, methods.get(m), "method" + m);
+        }
+        out.append("}\n");
+
+        List<Element> originating = new ArrayList<>();
+        originating.add(service);
+        for (ExecutableElement method : methods) {
+            if (!originating.contains(method.getEnclosingElement())) {
+                originating.add(method.getEnclosingElement());
+            }
+        }
+
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(qualifiedName, originating.toArray(new Element[0])).openWriter()) {
+            writer.write(out.toString());
+        } catch (IOException ex) {
+            error(service, "Could not write " + qualifiedName + ": " + ex.getMessage());
+        }
+    }
+
+    private void writeMethod(StringBuilder out, TypeElement service, String serviceType,
+                             ExecutableElement method, String field) {
+        ExecutableType type = memberType(service, method);
+        List<? extends VariableElement> parameters = method.getParameters();
+        List<? extends TypeMirror> parameterTypes = type.getParameterTypes();
+        TypeMirror returnType = type.getReturnType();
+
+        out.append("\n    @Override\n");
+        out.append("    public ").append(returnType).append(" ").append(method.getSimpleName()).append("(");
+        for (int p = 0; p < parameterTypes.size(); p++) {
+            out.append(p > 0 ? ", " : "").append(parameterTypes.get(p)).append(" p").append(p);
+        }
+        out.append(")");
+        List<? extends TypeMirror> thrownTypes = type.getThrownTypes();
+        for (int t = 0; t < thrownTypes.size(); t++) {
+            out.append(t == 0 ? " throws " : ", ").append(thrownTypes.get(t));
+        }
+        out.append(" {\n");
+
+        out.append("        ").append(SERVICE_METHOD).append(" serviceMethod = ").append(field).append(";\n");
+        out.append("        if (serviceMethod == null) {\n");
+        out.append("            serviceMethod = new ").append(SERVICE_METHOD).append(".Builder(magnet, ")
+                .append(serviceType).append(".class, ").append(literal(method.getSimpleName().toString())).append(")\n");
+
+        if (method.getAnnotation(GET.class) != null) {
+            call(out, "get", literal(method.getAnnotation(GET.class).value()));
+        } else if (method.getAnnotation(POST.class) != null) {
+            call(out, "post", literal(method.getAnnotation(POST.class).value()));
+        } else if (method.getAnnotation(PUT.class) != null) {
+            call(out, "put", literal(method.getAnnotation(PUT.class).value()));
+        } else {
+            call(out, "delete", literal(method.getAnnotation(DELETE.class).value()));
+        }
+        CachePolicy cachePolicy = method.getAnnotation(CachePolicy.class);
+        if (cachePolicy != null) {
+            call(out, "cachePolicy", cachePolicy.maxAge() + ", " + cachePolicy.noCache() + ", " + cachePolicy.noStore());
+        }
+        GzipRequest gzipRequest = method.getAnnotation(GzipRequest.class);
+        if (gzipRequest != null) {
+            call(out, "gzipRequest", String.valueOf(gzipRequest.minSize()));
+        }
+        CircuitBreakerPolicy circuitBreakerPolicy = method.getAnnotation(CircuitBreakerPolicy.class);
+        if (circuitBreakerPolicy != null) {
+            call(out, "circuitBreakerPolicy", circuitBreakerPolicy.enabled() + ", "
+                    + circuitBreakerPolicy.failureRateThreshold() + ", " + circuitBreakerPolicy.slowCallRateThreshold()
+                    + ", " + circuitBreakerPolicy.slowCallMillis() + "L, " + circuitBreakerPolicy.openMillis() + "L");
+        }
+        if (method.getAnnotation(Idempotent.class) != null) {
+            call(out, "idempotent", "");
+        }
+        Timeout timeout = method.getAnnotation(Timeout.class);
+        if (timeout != null) {
+            call(out, "timeout", timeout.connectMillis() + ", " + timeout.readMillis() + ", " + timeout.callMillis() + "L");
+        }
+        RateLimit rateLimit = method.getAnnotation(RateLimit.class);
+        if (rateLimit != null) {
+            call(out, "rateLimit", rateLimit.permitsPerSecond() + ", " + rateLimit.burst() + ", " + rateLimit.failFast());
+        }
+        Retry retry = method.getAnnotation(Retry.class);
+        if (retry != null) {
+            call(out, "retry", retry.enabled() + ", " + retry.maxAttempts() + ", "
+                    + retry.initialBackoffMillis() + "L, " + retry.maxBackoffMillis() + "L");
+        }
+
+        StringBuilder returnArgs = new StringBuilder(typeLiteral(returnType));
+        for (TypeMirror thrownType : thrownTypes) {
+            returnArgs.append(", ").append(types.erasure(thrownType)).append(".class");
+        }
+        call(out, "returnType", returnArgs.toString());
+
+        for (int p = 0; p < parameters.size(); p++) {
+            VariableElement parameter = parameters.get(p);
+            String typeLiteral = typeLiteral(parameterTypes.get(p));
+            if (parameter.getAnnotation(Path.class) != null) {
+                call(out, "path", literal(parameter.getAnnotation(Path.class).value()) + ", " + typeLiteral);
+            } else if (parameter.getAnnotation(Query.class) != null) {
+                call(out, "query", literal(parameter.getAnnotation(Query.class).value()) + ", " + typeLiteral);
+            } else if (parameter.getAnnotation(HeaderMap.class) != null) {
+                call(out, "headerMap", typeLiteral);
+            } else if (parameter.getAnnotation(Body.class) != null) {
+                call(out, "body", typeLiteral);
+            } else if (parameter.getAnnotation(FormMap.class) != null) {
+                call(out, "formMap", typeLiteral);
+            } else if (parameter.getAnnotation(Part.class) != null) {
+                call(out, "part", typeLiteral);
+            } else {
+                call(out, "destination", typeLiteral);
+            }
+        }
+        out.append("                    .build();\n");
+        out.append("            ").append(field).append(" = serviceMethod;\n");
+        out.append("        }\n");
+
+        StringBuilder args = new StringBuilder();
+        for (int p = 0; p < parameters.size(); p++) {
+            args.append(p > 0 ? ", " : "").append("p").append(p);
+        }
+        String invoke = "return (" + returnType + ") magnet.invoke(serviceMethod, new Object[]{" + args + "});\n";
+
+        List<TypeMirror> rethrown = checkedExceptions(thrownTypes);
+        if (rethrown == null) {
+            out.append("        ").append(invoke);
+        } else {
+            out.append("        try {\n");
+            out.append("            ").append(invoke);
+            out.append("        } catch (RuntimeException");
+            for (TypeMirror thrownType : rethrown) {
+                out.append(" | ").append(thrownType);
+            }
+            out.append(" e) {\n");
+            out.append("            throw e;\n");
+            out.append("        } catch (Exception e) {\n");
+            out.append("            throw new java.lang.reflect.UndeclaredThrowableException(e);\n");
+            out.append("        }\n");
+        }
+        out.append("    }\n");
+    }
+
+    /**
+     * Returns the declared checked exceptions a call rethrows as they are, without subtypes
+     * of one another, or null if the method declares {@code Exception} itself.
+     */
+    private List<TypeMirror> checkedExceptions(List<? extends TypeMirror> thrownTypes) {
+        TypeMirror exception = elements.getTypeElement("java.lang.Exception").asType();
+        TypeMirror runtimeException = elements.getTypeElement("java.lang.RuntimeException").asType();
+        TypeMirror error = elements.getTypeElement("java.lang.Error").asType();
+
+        List<TypeMirror> result = new ArrayList<>();
+        for (TypeMirror thrownType : thrownTypes) {
+            if (types.isSubtype(exception, thrownType)) {
+                return null;
+            }
+            if (types.isSubtype(thrownType, runtimeException) || types.isSubtype(thrownType, error)) {
+                continue;
+            }
+            boolean covered = false;
+            for (TypeMirror other : thrownTypes) {
+                if (other != thrownType && !types.isSameType(other, thrownType) && types.isSubtype(thrownType, other)) {
+                    covered = true;
+                }
+            }
+            if (!covered && !containsType(result, thrownType)) {
+                result.add(thrownType);
+            }
+        }
+        return result;
+    }
+
+    private boolean containsType(List<TypeMirror> list, TypeMirror type) {
+        for (TypeMirror element : list) {
+            if (types.isSameType(element, type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void call(StringBuilder out, String name, String args) {
+        out.append("                    .").append(name).append("(").append(args).append(")\n");
+    }
+
+    /**
+     * Returns an expression for the {@code java.lang.reflect.Type} of {@code type}: a class
+     * literal, or a {@code TypeToken} when type arguments have to survive erasure.
+     */
+    private String typeLiteral(TypeMirror type) {
+        if (isParameterized(type)) {
+            return "new " + TYPE_TOKEN + "<" + type + ">() {}.getType()";
+        }
+        return types.erasure(type) + ".class";
+    }
+
+    private static boolean isParameterized(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isParameterized(((ArrayType) type).getComponentType());
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declaredType = (DeclaredType) type;
+            return !declaredType.getTypeArguments().isEmpty()
+                    || isParameterized(declaredType.getEnclosingType());
+        }
+        return false;
+    }
+
+    private static boolean hasTypeVariable(TypeMirror type) {
+        switch (type.getKind()) {
+            case TYPEVAR:
+                return true;
+            case ARRAY:
+                return hasTypeVariable(((ArrayType) type).getComponentType());
+            case DECLARED:
+                for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+                    if (hasTypeVariable(argument)) {
+                        return true;
+                    }
+                }
+                return false;
+            case WILDCARD:
+                javax.lang.model.type.WildcardType wildcard = (javax.lang.model.type.WildcardType) type;
+                return (wildcard.getExtendsBound() != null && hasTypeVariable(wildcard.getExtendsBound()))
+                        || (wildcard.getSuperBound() != null && hasTypeVariable(wildcard.getSuperBound()));
+            default:
+                return false;
+        }
+    }
+
+    private ExecutableType memberType(TypeElement service, ExecutableElement method) {
+        return (ExecutableType) types.asMemberOf((DeclaredType) service.asType(), method);
+    }
+
+    private static boolean isPublic(TypeElement service) {
+        for (Element e = service; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (!e.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String literal(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7e) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    private void warn(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+
+    private boolean error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+}
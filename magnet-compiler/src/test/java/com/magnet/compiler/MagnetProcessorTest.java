@@ -0,0 +1,276 @@
+package com.magnet.compiler;
+
+import com.google.gson.Gson;
+import com.magnet.processor.Magnet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MagnetProcessorTest {
+
+    private static final String API = ""
+            + "package test;\n"
+            + "\n"
+            + "import com.magnet.annotations.*;\n"
+            + "import java.io.IOException;\n"
+            + "import java.util.List;\n"
+            + "import java.util.Map;\n"
+            + "import java.util.concurrent.CompletableFuture;\n"
+            + "\n"
+            + "public interface Api {\n"
+            + "    class Item {\n"
+            + "        public String name;\n"
+            + "        public int count;\n"
+            + "    }\n"
+            + "\n"
+            + "    @GET(\"/items/{id}\")\n"
+            + "    Item item(@Path(\"id\") String id, @Query(\"sort\") String sort) throws IOException;\n"
+            + "\n"
+            + "    @GET(\"/items\")\n"
+            + "    List<Item> items(@Query(\"tag\") String tag) throws IOException;\n"
+            + "\n"
+            + "    @POST(\"/items\")\n"
+            + "    String create(@Body Item item, @HeaderMap Map<String, String> headers) throws IOException;\n"
+            + "\n"
+            + "    @DELETE(\"/items/{id}\")\n"
+            + "    CompletableFuture<String> delete(@Path(\"id\") long id);\n"
+            + "}\n";
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final Gson gson = new Gson();
+    private HttpServer server;
+    private String baseUrl;
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("magnet-compiler");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String method = exchange.getRequestMethod();
+                String uri = exchange.getRequestURI().toString();
+                String body = read(exchange.getRequestBody());
+                requests.add(method + " " + uri + " trace=" + exchange.getRequestHeaders().getFirst("X-Trace")
+                        + " " + body);
+
+                String response;
+                if (method.equals("GET") && uri.startsWith("/items/")) {
+                    response = "{\"name\":\"" + uri + "\",\"count\":1}";
+                } else if (method.equals("GET")) {
+                    response = "[{\"name\":\"a\",\"count\":1},{\"name\":\"b\",\"count\":2}]";
+                } else {
+                    response = method + " " + body;
+                }
+                byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        delete(dir.toFile());
+    }
+
+    @Test
+    public void generatedImplementationBehavesLikeTheProxy() throws Exception {
+        File generatedDir = compileInto("generated", true, "test.Api", API);
+        File reflectiveDir = compileInto("reflective", false, "test.Api", API);
+        assertTrue(new File(generatedDir, "test/Api_MagnetImpl.class").isFile());
+        assertFalse(new File(reflectiveDir, "test/Api_MagnetImpl.class").exists());
+
+        Object generated = create(generatedDir);
+        assertEquals("test.Api_MagnetImpl", generated.getClass().getName());
+        List<String> generatedResults = callAll(generated);
+        List<String> generatedRequests = new ArrayList<>(requests);
+        requests.clear();
+
+        Object proxy = create(reflectiveDir);
+        assertTrue(Proxy.isProxyClass(proxy.getClass()));
+        List<String> proxyResults = callAll(proxy);
+
+        assertEquals(proxyResults, generatedResults);
+        assertEquals(new ArrayList<>(requests), generatedRequests);
+        assertEquals(Arrays.asList(
+                "GET /items/a%2Fb?sort=name+desc trace=null ",
+                "GET /items?tag=x trace=null ",
+                "POST /items trace=t1 {\"name\":\"new\",\"count\":3}",
+                "DELETE /items/42 trace=null "), generatedRequests);
+    }
+
+    @Test
+    public void unboundPlaceholderIsACompileError() throws Exception {
+        String source = ""
+                + "package test;\n"
+                + "public interface Unbound {\n"
+                + "    @com.magnet.annotations.GET(\"/items/{id}\")\n"
+                + "    String item() throws java.io.IOException;\n"
+                + "}\n";
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        assertFalse(compile(newDir("unbound"), true, "test.Unbound", source, diagnostics));
+        assertTrue(diagnostics.getDiagnostics().toString(),
+                hasMessage(diagnostics, Diagnostic.Kind.ERROR, "No @Path parameter for placeholder {id}"));
+    }
+
+    @Test
+    public void genericInterfaceIsLeftToTheProxy() throws Exception {
+        String source = ""
+                + "package test;\n"
+                + "public interface Generic<T> {\n"
+                + "    @com.magnet.annotations.GET(\"/g\")\n"
+                + "    T get() throws java.io.IOException;\n"
+                + "}\n";
+        File out = newDir("generic");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        assertTrue(compile(out, true, "test.Generic", source, diagnostics));
+        assertTrue(diagnostics.getDiagnostics().toString(),
+                hasMessage(diagnostics, Diagnostic.Kind.WARNING, "implemented by reflection"));
+        assertFalse(new File(out, "test/Generic_MagnetImpl.class").exists());
+    }
+
+    private Object create(File classes) throws Exception {
+        ClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+        Class<?> api = Class.forName("test.Api", true, loader);
+        Magnet magnet = new Magnet.Builder().baseUrl(baseUrl).build();
+        return magnet.create(api);
+    }
+
+    /**
+     * Calls every method of {@code api} and returns the results as JSON.
+     */
+    private List<String> callAll(Object api) throws Exception {
+        Class<?> type = api.getClass().getInterfaces()[0];
+        Class<?> itemType = Class.forName("test.Api$Item", true, type.getClassLoader());
+        Object item = itemType.getConstructor().newInstance();
+        itemType.getField("name").set(item, "new");
+        itemType.getField("count").set(item, 3);
+
+        List<String> results = new ArrayList<>();
+        results.add(gson.toJson(method(type, "item").invoke(api, "a/b", "name desc")));
+        results.add(gson.toJson(method(type, "items").invoke(api, "x")));
+        results.add(gson.toJson(method(type, "create").invoke(api, item, Collections.singletonMap("X-Trace", "t1"))));
+        CompletableFuture<?> deleted = (CompletableFuture<?>) method(type, "delete").invoke(api, 42L);
+        results.add(gson.toJson(deleted.get(5, TimeUnit.SECONDS)));
+        return results;
+    }
+
+    private static Method method(Class<?> type, String name) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        throw new AssertionError("No method " + name);
+    }
+
+    private File compileInto(String name, boolean process, String className, String source) throws IOException {
+        File out = newDir(name);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        assertTrue(diagnostics.getDiagnostics().toString(), compile(out, process, className, source, diagnostics));
+        return out;
+    }
+
+    private File newDir(String name) throws IOException {
+        return Files.createDirectory(dir.resolve(name)).toFile();
+    }
+
+    /**
+     * Compiles {@code source} into {@code out}, running {@link MagnetProcessor} over it if
+     * {@code process} is true.
+     */
+    private static boolean compile(File out, boolean process, String className, final String source,
+                                   DiagnosticCollector<JavaFileObject> diagnostics) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-d", out.getPath(), "-classpath", System.getProperty("java.class.path")));
+        if (!process) {
+            options.add("-proc:none");
+        }
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+                Collections.singletonList(file));
+        if (process) {
+            task.setProcessors(Collections.singletonList(new MagnetProcessor()));
+        }
+        return task.call();
+    }
+
+    private static boolean hasMessage(DiagnosticCollector<JavaFileObject> diagnostics, Diagnostic.Kind kind,
+                                      String message) {
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == kind && diagnostic.getMessage(null).contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,64 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.Body;
+import com.magnet.annotations.FormMap;
+import com.magnet.annotations.GET;
+import com.magnet.annotations.HeaderMap;
+import com.magnet.annotations.POST;
+import com.magnet.annotations.Path;
+import com.magnet.annotations.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+interface BenchmarkApi {
+
+    @GET("/users/{id}")
+    HttpWorker<User> user(@Path("id") String id);
+
+    @GET("/users/{id}/posts")
+    HttpWorker<List<Post>> posts(@Path("id") String id, @Query("page") int page, @Query("filter") String filter,
+                                 @HeaderMap Map<String, String> headers);
+
+    @POST("/users/{id}/profile")
+    HttpWorker<User> updateProfile(@Path("id") String id, @HeaderMap Map<String, String> headers,
+                                   @FormMap Map<String, String> form);
+
+    @POST("/users")
+    HttpWorker<User> createUser(@Body User user);
+
+    @GET("/payload")
+    HttpWorker<Post[]> payload(@Query("size") int size);
+
+    @GET("/payload")
+    Post[] payloadSync(@Query("size") int size);
+
+    class User {
+        String id;
+        String name;
+        String email;
+        int age;
+        List<String> tags;
+
+        static User sample() {
+            User user = new User();
+            user.id = "42";
+            user.name = "Jane Doe";
+            user.email = "jane@example.com";
+            user.age = 34;
+            user.tags = new ArrayList<>();
+            user.tags.add("admin");
+            user.tags.add("beta");
+            return user;
+        }
+    }
+
+    class Post {
+        long id;
+        String title;
+        String body;
+        boolean published;
+        double score;
+    }
+}
@@ -0,0 +1,50 @@
+package com.magnet.processor;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a response body the way {@link HttpWorker} does, for a small and a large
+ * payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeserializationBenchmark {
+
+    @Param({"10", "10000"})
+    public int elements;
+
+    private byte[] payload;
+    private TypeAdapter<List<BenchmarkApi.Post>> adapter;
+
+    @Setup
+    public void setUp() {
+        payload = Payloads.posts(elements);
+        adapter = new Gson().getAdapter(new TypeToken<List<BenchmarkApi.Post>>() {
+        });
+    }
+
+    @Benchmark
+    public List<BenchmarkApi.Post> decode() throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+        return Util.readJson(adapter, reader);
+    }
+}
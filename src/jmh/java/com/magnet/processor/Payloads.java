@@ -0,0 +1,27 @@
+package com.magnet.processor;
+
+import java.nio.charset.StandardCharsets;
+
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    static byte[] posts(int count) {
+        StringBuilder builder = new StringBuilder(count * 120 + 2);
+        builder.append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i)
+                    .append(",\"title\":\"Post number ").append(i)
+                    .append("\",\"body\":\"Lorem ipsum dolor sit amet, consectetur adipiscing elit\"")
+                    .append(",\"published\":").append(i % 2 == 0)
+                    .append(",\"score\":").append(i * 0.5)
+                    .append('}');
+        }
+        builder.append(']');
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
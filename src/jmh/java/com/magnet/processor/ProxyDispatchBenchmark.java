@@ -0,0 +1,44 @@
+package com.magnet.processor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of calling a service method, up to the point where the {@link HttpWorker} is handed
+ * back: through the reflective proxy, and through the class magnet-compiler generates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProxyDispatchBenchmark {
+
+    private BenchmarkApi proxy;
+    private BenchmarkApi generated;
+
+    @Setup
+    public void setUp() {
+        Magnet magnet = new Magnet.Builder().baseUrl("http://localhost:8080").build();
+        proxy = magnet.createProxy(BenchmarkApi.class);
+        generated = magnet.createGenerated(BenchmarkApi.class);
+        if (generated == null) {
+            throw new IllegalStateException("BenchmarkApi_MagnetImpl was not generated");
+        }
+    }
+
+    @Benchmark
+    public Object proxyCall() {
+        return proxy.user("42");
+    }
+
+    @Benchmark
+    public Object generatedCall() {
+        return generated.user("42");
+    }
+}
@@ -0,0 +1,110 @@
+package com.magnet.processor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ServiceMethod#toRequestBuilder} with path, query, header, form and body
+ * parameters, and the URL encoding done by {@link RequestBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestBuildBenchmark {
+
+    private ServiceMethod user;
+    private ServiceMethod posts;
+    private ServiceMethod updateProfile;
+    private ServiceMethod createUser;
+
+    private Object[] userArgs;
+    private Object[] postsArgs;
+    private Object[] updateProfileArgs;
+    private Object[] createUserArgs;
+
+    private UrlTemplate encodingTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+        Magnet magnet = new Magnet.Builder().baseUrl("http://localhost:8080").build();
+        user = serviceMethod(magnet, "user", String.class);
+        posts = serviceMethod(magnet, "posts", String.class, int.class, String.class, Map.class);
+        updateProfile = serviceMethod(magnet, "updateProfile", String.class, Map.class, Map.class);
+        createUser = serviceMethod(magnet, "createUser", BenchmarkApi.User.class);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer 0123456789abcdef");
+        headers.put("Accept", "application/json");
+
+        Map<String, String> form = new HashMap<>();
+        form.put("display name", "Jane Doe");
+        form.put("bio", "Likes long walks & short URLs");
+
+        userArgs = new Object[]{"42"};
+        postsArgs = new Object[]{"42", 3, "published & pinned", headers};
+        updateProfileArgs = new Object[]{"42", headers, form};
+        createUserArgs = new Object[]{BenchmarkApi.User.sample()};
+
+        encodingTemplate = UrlTemplate.parse("http://localhost:8080", "/search/{term}");
+    }
+
+    @Benchmark
+    public String pathOnly() {
+        return user.toRequestBuilder(userArgs).url();
+    }
+
+    @Benchmark
+    public String pathQueryHeaders() {
+        return posts.toRequestBuilder(postsArgs).url();
+    }
+
+    @Benchmark
+    public RequestBuilder pathHeadersForm() {
+        return updateProfile.toRequestBuilder(updateProfileArgs);
+    }
+
+    @Benchmark
+    public long bodySerialization() throws IOException {
+        CountingSink sink = new CountingSink();
+        createUser.toRequestBuilder(createUserArgs).body().writeTo(sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public String urlEncoding() {
+        RequestBuilder builder = new RequestBuilder(encodingTemplate, "GET", false, false, false);
+        builder.addPathParam(0, "café & crème/brûlée");
+        builder.addQueryParam("q", "a b+c=d&e");
+        builder.addQueryParam("lang", "日本語");
+        return builder.url();
+    }
+
+    private static final class CountingSink extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    static ServiceMethod serviceMethod(Magnet magnet, String name, Class<?>... parameterTypes) throws Exception {
+        return new ServiceMethod.Builder(magnet, BenchmarkApi.class.getDeclaredMethod(name, parameterTypes)).build();
+    }
+}
@@ -0,0 +1,109 @@
+package com.magnet.processor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full call through {@link Magnet}, from the proxy to the delivered result, against a
+ * {@link HttpServer} on the loopback interface.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+
+    @Param({"10", "10000"})
+    public int elements;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private BenchmarkApi api;
+
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] payload = Payloads.posts(elements);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Drain the request so the connection can be reused.
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, payload.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(payload);
+                out.close();
+            }
+        });
+        server.start();
+
+        Magnet magnet = new Magnet.Builder()
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .build();
+        api = magnet.create(BenchmarkApi.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public Object roundTrip() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        HttpWorker<BenchmarkApi.Post[]> call = api.payload(elements);
+        call.execute(BenchmarkApi.Post[].class, new CallBack<BenchmarkApi.Post[]>() {
+            @Override
+            public void successResponse(int responseCode, BenchmarkApi.Post[] posts) {
+                result[0] = posts;
+                latch.countDown();
+            }
+
+            @Override
+            public void failureResponse(Exception ex) {
+                result[0] = ex;
+                latch.countDown();
+            }
+
+            @Override
+            public void offline() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+        return result[0];
+    }
+
+    @Benchmark
+    public Object synchronousRoundTrip() {
+        return api.payloadSync(elements);
+    }
+}
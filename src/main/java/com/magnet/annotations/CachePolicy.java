@@ -0,0 +1,18 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the response cache behaviour of a {@link GET} method. {@code maxAge} is in
+ * seconds; -1 keeps the freshness the server sends.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CachePolicy {
+    int maxAge() default -1;
+    boolean noCache() default false;
+    boolean noStore() default false;
+}
@@ -0,0 +1,22 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the circuit breaker set on the client for one method, which then gets a
+ * circuit of its own instead of sharing its host's. Values of -1 keep the client's
+ * settings; {@code enabled = false} lets the method's calls through whatever state its
+ * host is in. Has no effect unless the client has a circuit breaker.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CircuitBreakerPolicy {
+    boolean enabled() default true;
+    int failureRateThreshold() default -1;
+    int slowCallRateThreshold() default -1;
+    long slowCallMillis() default -1;
+    long openMillis() default -1;
+}
@@ -0,0 +1,17 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link java.io.File} or {@link java.nio.file.Path} parameter as the file the
+ * response body is downloaded to. The method must return that file, as {@code File},
+ * {@code Path} or a worker or future of one. The body is written to disk as it arrives,
+ * and an interrupted download resumes where it stopped on the next call.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Destination {
+}
@@ -0,0 +1,18 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sends the {@link Body} or {@link FormMap} payload of a method gzip-compressed, with
+ * {@code Content-Encoding: gzip}. Payloads shorter than {@code minSize} bytes are sent as
+ * they are, since compressing them saves little; a JSON body too large to be measured up
+ * front is always compressed. The server must accept gzip request bodies.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface GzipRequest {
+    int minSize() default 1024;
+}
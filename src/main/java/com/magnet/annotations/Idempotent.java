@@ -0,0 +1,16 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link POST}, {@link PUT} or {@link DELETE} method as safe to send more than
+ * once, so that it may be hedged like a {@link GET}. Sending it twice must leave the server
+ * in the same state as sending it once.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Idempotent {
+}
@@ -0,0 +1,20 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Paces the calls of one method to {@code permitsPerSecond}, allowing bursts of up to
+ * {@code burst} calls after a quiet period. This applies on top of any limit the client
+ * sets for the method's host. Calls over the limit wait their turn or, with
+ * {@code failFast}, fail at once.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+    double permitsPerSecond();
+    int burst() default 1;
+    boolean failFast() default false;
+}
@@ -0,0 +1,21 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the retry policy set on the client for one method, or gives the method one if
+ * the client has none. Values of -1 keep the client's settings; {@code enabled = false}
+ * turns retries off for the method. Only {@link GET} and {@link Idempotent} methods are
+ * ever retried.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Retry {
+    boolean enabled() default true;
+    int maxAttempts() default -1;
+    long initialBackoffMillis() default -1;
+    long maxBackoffMillis() default -1;
+}
@@ -0,0 +1,20 @@
+package com.magnet.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the client's timeouts for one method. {@code connectMillis} and
+ * {@code readMillis} bound each connect and each wait for data; {@code callMillis} bounds
+ * the whole call, from connecting to decoding the response, and 0 removes the client's
+ * deadline. Values of -1 keep the client's settings.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Timeout {
+    int connectMillis() default -1;
+    int readMillis() default -1;
+    long callMillis() default -1;
+}
@@ -0,0 +1,326 @@
+package com.magnet.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches responses of {@code GET} methods. Entries live in a size-bounded in-memory LRU and,
+ * when a directory is given, in a size-bounded disk tier that survives restarts.
+ * Locks are {@link ReentrantLock}s rather than monitors so that a virtual thread trimming
+ * the disk tier does not pin its carrier thread.
+ */
+
+public final class Cache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long maxMemoryBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    private final ReentrantLock memoryLock = new ReentrantLock();
+    private final ReentrantLock diskLock = new ReentrantLock();
+    private final LinkedHashMap<String, CacheEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidationCount = new AtomicLong();
+    private final AtomicLong revalidatedHitCount = new AtomicLong();
+
+    public Cache(long maxMemoryBytes) {
+        this(maxMemoryBytes, null, 0);
+    }
+
+    public Cache(long maxMemoryBytes, File directory, long maxDiskBytes) {
+        if (maxMemoryBytes <= 0) {
+            throw new IllegalArgumentException("maxMemoryBytes <= 0: " + maxMemoryBytes);
+        }
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create cache directory " + directory);
+            }
+            long size = 0;
+            for (File file : listEntries()) {
+                size += file.length();
+            }
+            diskBytes.set(size);
+        }
+    }
+
+    /**
+     * Number of cacheable requests looked up in this cache.
+     */
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Number of requests served from the cache without going to the network, including
+     * those confirmed by a 304 revalidation.
+     */
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of requests that had to fetch a full response from the network.
+     */
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of conditional requests sent to revalidate a stale entry.
+     */
+    public long revalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * Number of revalidations the server answered with 304 Not Modified.
+     */
+    public long revalidatedHitCount() {
+        return revalidatedHitCount.get();
+    }
+
+    public long memorySize() {
+        memoryLock.lock();
+        try {
+            return memoryBytes;
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    public long diskSize() {
+        return diskBytes.get();
+    }
+
+    public void evictAll() {
+        memoryLock.lock();
+        try {
+            memory.clear();
+            memoryBytes = 0;
+        } finally {
+            memoryLock.unlock();
+        }
+        if (directory != null) {
+            for (File file : listEntries()) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * Returns the entry for {@code url}, or null if there is none or it was fetched with
+     * different values of the request headers it varies on. Only the latest variant of a
+     * URL is kept.
+     */
+    CacheEntry get(String url, Map<String, String> requestHeaders) {
+        requestCount.incrementAndGet();
+        String key = key(url);
+        memoryLock.lock();
+        CacheEntry entry;
+        try {
+            entry = memory.get(key);
+        } finally {
+            memoryLock.unlock();
+        }
+
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry == null || !entry.url.equals(url)) {
+                return null;
+            }
+            putInMemory(key, entry);
+        }
+        return entry.matches(requestHeaders) ? entry : null;
+    }
+
+    void put(CacheEntry entry) {
+        String key = key(entry.url);
+        putInMemory(key, entry);
+        writeToDisk(key, entry);
+    }
+
+    void trackHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void trackMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void trackRevalidation() {
+        revalidationCount.incrementAndGet();
+    }
+
+    void trackRevalidatedHit() {
+        revalidatedHitCount.incrementAndGet();
+        hitCount.incrementAndGet();
+    }
+
+    long maxEntrySize() {
+        return Math.max(maxMemoryBytes, maxDiskBytes);
+    }
+
+    private void putInMemory(String key, CacheEntry entry) {
+        if (entry.size() > maxMemoryBytes) {
+            return;
+        }
+        memoryLock.lock();
+        try {
+            CacheEntry previous = memory.put(key, entry);
+            if (previous != null) {
+                memoryBytes -= previous.size();
+            }
+            memoryBytes += entry.size();
+
+            Iterator<Map.Entry<String, CacheEntry>> i = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && i.hasNext()) {
+                memoryBytes -= i.next().getValue().size();
+                i.remove();
+            }
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    private CacheEntry readFromDisk(String key) {
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                CacheEntry entry = CacheEntry.readFrom(in);
+                file.setLastModified(System.currentTimeMillis());
+                return entry;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            delete(file);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, CacheEntry entry) {
+        if (directory == null || entry.size() > maxDiskBytes) {
+            return;
+        }
+
+        File file = new File(directory, key);
+        File tmp = new File(directory, key + "." + Thread.currentThread().threadId() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                entry.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            long previous = file.length();
+            if (!tmp.renameTo(file)) {
+                delete(file);
+                if (!tmp.renameTo(file)) {
+                    delete(tmp);
+                    return;
+                }
+                previous = 0;
+            }
+            diskBytes.addAndGet(file.length() - previous);
+        } catch (IOException ex) {
+            delete(tmp);
+            return;
+        }
+
+        if (diskBytes.get() > maxDiskBytes) {
+            trimDisk();
+        }
+    }
+
+    private void trimDisk() {
+        diskLock.lock();
+        try {
+            File[] files = listEntries();
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long left = a.lastModified();
+                    long right = b.lastModified();
+                    return left < right ? -1 : (left == right ? 0 : 1);
+                }
+            });
+
+            for (int i = 0; i < files.length && diskBytes.get() > maxDiskBytes; i++) {
+                delete(files[i]);
+            }
+        } finally {
+            diskLock.unlock();
+        }
+    }
+
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete() && !file.getName().endsWith(".tmp")) {
+            diskBytes.addAndGet(-length);
+        }
+    }
+
+    private File[] listEntries() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.isFile() && !file.getName().endsWith(".tmp")) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.magnet.processor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A cached 200 response: its body bytes plus the response headers needed to judge
+ * freshness and to revalidate it, and the request headers it was fetched with that select
+ * it, those named by its {@code Vary} header and {@code Authorization}.
+ */
+
+final class CacheEntry {
+
+    private static final int VERSION = 3;
+
+    /**
+     * The response headers an entry keeps, which a 304 response updates.
+     */
+    private static final String[] STORED_HEADERS = {"ETag", "Last-Modified", "Cache-Control", "Expires", "Date"};
+
+    final String url;
+    final String contentType;
+    final Map<String, String> headers;
+    final String etag;
+    final String lastModified;
+    final long expiresAtMillis;
+    final Map<String, String> varyHeaders;
+    final byte[] body;
+
+    CacheEntry(String url, String contentType, Map<String, String> headers, long expiresAtMillis,
+               Map<String, String> varyHeaders, byte[] body) {
+        this.url = url;
+        this.contentType = contentType;
+        this.headers = headers;
+        this.etag = headers.get("ETag");
+        this.lastModified = headers.get("Last-Modified");
+        this.expiresAtMillis = expiresAtMillis;
+        this.varyHeaders = varyHeaders;
+        this.body = body;
+    }
+
+    /**
+     * Returns true if a call sending {@code requestHeaders} may be served this entry: it
+     * sends the same values of the headers the entry varies on.
+     */
+    boolean matches(Map<String, String> requestHeaders) {
+        for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+            String value = header(requestHeaders, vary.getKey());
+            if (value == null ? vary.getValue() != null : !value.equals(vary.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isFresh(long nowMillis) {
+        return nowMillis < expiresAtMillis;
+    }
+
+    boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    long size() {
+        long size = body.length + url.length() * 2L + 128;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            size += (header.getKey().length() + header.getValue().length()) * 2L;
+        }
+        for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+            size += (vary.getKey().length() + (vary.getValue() != null ? vary.getValue().length() : 0)) * 2L;
+        }
+        return size;
+    }
+
+    /**
+     * Returns this entry updated by {@code notModified}, a 304 response received at
+     * {@code nowMillis}: the validators and freshness headers it carries replace the stored
+     * ones, and freshness is computed again from the result (RFC 9111, section 4.3.4).
+     */
+    CacheEntry withRevalidation(Response notModified, long nowMillis, int maxAgeSeconds) {
+        Map<String, String> updated = new LinkedHashMap<>(headers);
+        updated.putAll(storedHeaders(notModified));
+        long expiresAt = expiresAt(updated, notModified.header("Age"), nowMillis, maxAgeSeconds);
+        return new CacheEntry(url, contentType, updated, expiresAt, varyHeaders, body);
+    }
+
+    CacheEntry withBody(byte[] body) {
+        return new CacheEntry(url, contentType, headers, expiresAtMillis, varyHeaders, body);
+    }
+
+    /**
+     * Returns the headers of {@code response} an entry keeps.
+     */
+    static Map<String, String> storedHeaders(Response response) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String name : STORED_HEADERS) {
+            String value = response.header(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the values in {@code requestHeaders} of the headers {@code response} varies
+     * on, plus {@code Authorization} so that one caller's response is never served to
+     * another, keyed by lower-case name. A header the request did not send maps to null.
+     */
+    static Map<String, String> varyHeaders(Response response, Map<String, String> requestHeaders) {
+        Map<String, String> varyHeaders = new LinkedHashMap<>();
+        for (String name : varyNames(response)) {
+            varyHeaders.put(name, header(requestHeaders, name));
+        }
+        varyHeaders.put("authorization", header(requestHeaders, "authorization"));
+        return varyHeaders;
+    }
+
+    /**
+     * Returns true if a response with these headers may be stored at all.
+     */
+    static boolean isStorable(Response response) {
+        String cacheControl = response.header("Cache-Control");
+        if (cacheControl != null && directive(cacheControl, "no-store") != null) {
+            return false;
+        }
+        return !varyNames(response).contains("*");
+    }
+
+    /**
+     * Computes when a response received at {@code nowMillis} stops being fresh, following
+     * Cache-Control max-age and no-cache, then Expires. A non-negative {@code maxAgeSeconds}
+     * from the method's cache policy wins over the server.
+     */
+    static long expiresAt(Response response, long nowMillis, int maxAgeSeconds) {
+        return expiresAt(storedHeaders(response), response.header("Age"), nowMillis, maxAgeSeconds);
+    }
+
+    private static long expiresAt(Map<String, String> headers, String age, long nowMillis, int maxAgeSeconds) {
+        if (maxAgeSeconds >= 0) {
+            return nowMillis + maxAgeSeconds * 1000L;
+        }
+
+        String cacheControl = headers.get("Cache-Control");
+        if (cacheControl != null) {
+            if (directive(cacheControl, "no-cache") != null) {
+                return nowMillis;
+            }
+            String maxAge = directive(cacheControl, "max-age");
+            if (maxAge != null) {
+                return nowMillis + Math.max(0, parseSeconds(maxAge) - parseSeconds(age)) * 1000L;
+            }
+        }
+
+        long expires = Response.parseDate(headers.get("Expires"), 0);
+        if (expires > 0) {
+            long date = Response.parseDate(headers.get("Date"), nowMillis);
+            return nowMillis + Math.max(0, expires - date);
+        }
+        return nowMillis;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(url);
+        writeNullable(out, contentType);
+        out.writeInt(headers.size());
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeUTF(header.getValue());
+        }
+        out.writeLong(expiresAtMillis);
+        out.writeInt(varyHeaders.size());
+        for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+            out.writeUTF(vary.getKey());
+            writeNullable(out, vary.getValue());
+        }
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    static CacheEntry readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) {
+            return null;
+        }
+        String url = in.readUTF();
+        String contentType = readNullable(in);
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            headers.put(in.readUTF(), in.readUTF());
+        }
+        long expiresAt = in.readLong();
+        Map<String, String> varyHeaders = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            varyHeaders.put(in.readUTF(), readNullable(in));
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new CacheEntry(url, contentType, headers, expiresAt, varyHeaders, body);
+    }
+
+    private static List<String> varyNames(Response response) {
+        List<String> values = response.headers().get("Vary");
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        for (String value : values) {
+            for (String name : value.split(",")) {
+                name = name.trim().toLowerCase(Locale.ROOT);
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String directive(String cacheControl, String name) {
+        for (String part : cacheControl.split(",")) {
+            String directive = part.trim();
+            if (directive.equalsIgnoreCase(name)) {
+                return "";
+            }
+            if (directive.regionMatches(true, 0, name + "=", 0, name.length() + 1)) {
+                return directive.substring(name.length() + 1).replace("\"", "").trim();
+            }
+        }
+        return null;
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,287 @@
+package com.magnet.processor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the answers of another {@link Dns} in process, each for the TTL of its host.
+ * An entry that has used up {@code refreshAhead} of its TTL is looked up again in the
+ * background while callers keep getting the cached addresses, so a slow resolver does not
+ * stall calls. After it expires, an entry is still served, and refreshed, for up to
+ * {@code maxStale} when the resolver fails or has not answered yet; only a host seen for
+ * the first time, or stale beyond that, makes the caller wait for a lookup. Concurrent
+ * lookups of the same host share one.
+ */
+
+public final class CachingDns implements Dns {
+
+    private final Dns delegate;
+    private final long ttlNanos;
+    private final Map<String, Long> hostTtlNanos;
+    private final double refreshAhead;
+    private final long maxStaleNanos;
+    private final Executor refreshExecutor;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, FutureTask<Entry>> lookups = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    CachingDns(Builder builder) {
+        delegate = builder.delegate;
+        ttlNanos = builder.ttlNanos;
+        hostTtlNanos = new HashMap<>(builder.hostTtlNanos);
+        refreshAhead = builder.refreshAhead;
+        maxStaleNanos = builder.maxStaleNanos;
+        refreshExecutor = builder.refreshExecutor != null ? builder.refreshExecutor : defaultExecutor();
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        String host = hostname.toLowerCase(Locale.ROOT);
+        Entry entry = entries.get(host);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return load(host).addresses;
+        }
+
+        long age = System.nanoTime() - entry.resolvedAt;
+        if (age >= entry.ttlNanos * refreshAhead) {
+            refresh(host, entry);
+        }
+        if (age < entry.ttlNanos) {
+            hitCount.incrementAndGet();
+            return entry.addresses;
+        }
+        if (age < entry.ttlNanos + maxStaleNanos) {
+            staleHitCount.incrementAndGet();
+            return entry.addresses;
+        }
+        missCount.incrementAndGet();
+        return load(host).addresses;
+    }
+
+    /**
+     * Number of lookups answered with an entry within its TTL.
+     */
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of lookups answered with an expired entry while it was being refreshed.
+     */
+    public long staleHitCount() {
+        return staleHitCount.get();
+    }
+
+    /**
+     * Number of lookups that waited for the resolver.
+     */
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of background refreshes started.
+     */
+    public long refreshCount() {
+        return refreshCount.get();
+    }
+
+    public void evictAll() {
+        entries.clear();
+    }
+
+    private Entry load(final String host) throws UnknownHostException {
+        FutureTask<Entry> lookup = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() throws UnknownHostException {
+                return resolve(host);
+            }
+        });
+        FutureTask<Entry> running = lookups.putIfAbsent(host, lookup);
+        if (running == null) {
+            running = lookup;
+            try {
+                lookup.run();
+            } finally {
+                lookups.remove(host, lookup);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("Interrupted while resolving " + host);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof UnknownHostException) {
+                throw (UnknownHostException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void refresh(final String host, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshCount.incrementAndGet();
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(host);
+                    } catch (UnknownHostException | RuntimeException ex) {
+                        // Keep serving the entry we have; the next lookup tries again.
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private Entry resolve(String host) throws UnknownHostException {
+        List<InetAddress> addresses = MagnetResolverProvider.resolve(delegate, host);
+        Long hostTtl = hostTtlNanos.get(host);
+        Entry entry = new Entry(Collections.unmodifiableList(addresses), System.nanoTime(),
+                hostTtl != null ? hostTtl : ttlNanos);
+        entries.put(host, entry);
+        return entry;
+    }
+
+    private static Executor defaultExecutor() {
+        return new ThreadPoolExecutor(0, 4, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Magnet Dns #" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private static final class Entry {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+        final long ttlNanos;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(List<InetAddress> addresses, long resolvedAt, long ttlNanos) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+
+    public static final class Builder {
+        private Dns delegate = Dns.SYSTEM;
+        private long ttlNanos = TimeUnit.SECONDS.toNanos(60);
+        private final Map<String, Long> hostTtlNanos = new HashMap<>();
+        private double refreshAhead = 0.75;
+        private long maxStaleNanos = TimeUnit.MINUTES.toNanos(10);
+        private Executor refreshExecutor;
+
+        /**
+         * Sets the resolver whose answers are cached. Defaults to {@link Dns#SYSTEM}.
+         */
+        public Builder delegate(Dns delegate) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("delegate == null");
+            }
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Sets how long answers are fresh for hosts without a TTL of their own. Defaults
+         * to 60 seconds.
+         */
+        public Builder ttl(long ttl, TimeUnit unit) {
+            if (ttl <= 0) {
+                throw new IllegalArgumentException("ttl <= 0: " + ttl);
+            }
+            this.ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        public Builder ttl(String hostname, long ttl, TimeUnit unit) {
+            if (hostname == null) {
+                throw new IllegalArgumentException("hostname == null");
+            }
+            if (ttl <= 0) {
+                throw new IllegalArgumentException("ttl <= 0: " + ttl);
+            }
+            hostTtlNanos.put(hostname.toLowerCase(Locale.ROOT), unit.toNanos(ttl));
+            return this;
+        }
+
+        /**
+         * Sets the fraction of its TTL after which an entry is refreshed in the background.
+         * Defaults to 0.75.
+         */
+        public Builder refreshAhead(double refreshAhead) {
+            if (!(refreshAhead > 0 && refreshAhead <= 1)) {
+                throw new IllegalArgumentException("refreshAhead not in (0, 1]: " + refreshAhead);
+            }
+            this.refreshAhead = refreshAhead;
+            return this;
+        }
+
+        /**
+         * Sets how long past its TTL an entry may still be served while it cannot be
+         * refreshed. Defaults to 10 minutes; 0 makes callers wait for expired hosts.
+         */
+        public Builder maxStale(long maxStale, TimeUnit unit) {
+            if (maxStale < 0) {
+                throw new IllegalArgumentException("maxStale < 0: " + maxStale);
+            }
+            this.maxStaleNanos = unit.toNanos(maxStale);
+            return this;
+        }
+
+        public Builder refreshExecutor(Executor refreshExecutor) {
+            if (refreshExecutor == null) {
+                throw new IllegalArgumentException("refreshExecutor == null");
+            }
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        public CachingDns build() {
+            return new CachingDns(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.magnet.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Copies everything read from the wrapped stream into memory, up to a limit, so a response
+ * can be decoded while it streams and still be stored in the cache afterwards.
+ */
+
+final class CachingInputStream extends FilterInputStream {
+
+    private final long limit;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    CachingInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1 && copy != null) {
+            copy.write(b);
+            checkLimit();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = in.read(b, off, len);
+        if (count > 0 && copy != null) {
+            copy.write(b, off, count);
+            checkLimit();
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        copy = null;
+        return in.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads the rest of the stream and returns the whole body, or null if it was larger
+     * than the limit.
+     */
+    byte[] drainAndGet() throws IOException {
+        byte[] buffer = new byte[8192];
+        while (read(buffer, 0, buffer.length) != -1) {
+            if (copy == null) {
+                return null;
+            }
+        }
+        return copy != null ? copy.toByteArray() : null;
+    }
+
+    private void checkLimit() {
+        if (copy.size() > limit) {
+            copy = null;
+        }
+    }
+}
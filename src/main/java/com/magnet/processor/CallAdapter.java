@@ -0,0 +1,136 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Turns the {@link HttpWorker} for a call into what the interface method declares it
+ * returns: the worker itself, a {@link CompletableFuture}, a {@link ResponseStream}, or
+ * the result of running the call synchronously on the calling thread.
+ */
+
+abstract class CallAdapter {
+
+    private final Type responseType;
+
+    CallAdapter(Type responseType) {
+        this.responseType = responseType;
+    }
+
+    /**
+     * The type the response body is decoded into, or null if the method returns a raw
+     * {@link HttpWorker} and the type is given at {@link HttpWorker#execute(Class, CallBack)}.
+     */
+    final Type responseType() {
+        return responseType;
+    }
+
+    abstract Object adapt(HttpWorker<Object> call) throws Exception;
+
+    static CallAdapter forReturnType(Type returnType, Class<?>[] exceptionTypes, String methodName) {
+        Class<?> rawType = Util.rawType(returnType);
+
+        if (rawType == HttpWorker.class) {
+            return new Worker(typeArgument(returnType));
+        }
+        if (rawType == CompletableFuture.class) {
+            Type responseType = typeArgument(returnType);
+            if (responseType == null) {
+                throw new IllegalArgumentException("CompletableFuture return type must be parameterized: " + methodName);
+            }
+            return new Future(responseType);
+        }
+        if (rawType == ResponseStream.class) {
+            Type elementType = typeArgument(returnType);
+            if (elementType == null) {
+                throw new IllegalArgumentException("ResponseStream return type must be parameterized: " + methodName);
+            }
+            return new Streaming(elementType, exceptionTypes);
+        }
+        if (rawType == void.class) {
+            throw new IllegalArgumentException("Service methods cannot return void: " + methodName);
+        }
+        return new Synchronous(returnType, exceptionTypes);
+    }
+
+    /**
+     * Rethrows {@code ex} if the interface method declares it, and wraps it in an
+     * {@link UncheckedIOException} otherwise.
+     */
+    private static Exception rethrow(IOException ex, Class<?>[] declaredExceptions) {
+        for (Class<?> declared : declaredExceptions) {
+            if (declared.isInstance(ex)) {
+                return ex;
+            }
+        }
+        return new UncheckedIOException(ex);
+    }
+
+    private static Type typeArgument(Type type) {
+        if (type instanceof ParameterizedType) {
+            return ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        return null;
+    }
+
+    static final class Worker extends CallAdapter {
+        Worker(Type responseType) {
+            super(responseType);
+        }
+
+        @Override
+        Object adapt(HttpWorker<Object> call) {
+            return call;
+        }
+    }
+
+    static final class Future extends CallAdapter {
+        Future(Type responseType) {
+            super(responseType);
+        }
+
+        @Override
+        Object adapt(HttpWorker<Object> call) {
+            return call.executeAsync();
+        }
+    }
+
+    static final class Synchronous extends CallAdapter {
+        private final Class<?>[] declaredExceptions;
+
+        Synchronous(Type responseType, Class<?>[] declaredExceptions) {
+            super(responseType);
+            this.declaredExceptions = declaredExceptions;
+        }
+
+        @Override
+        Object adapt(HttpWorker<Object> call) throws Exception {
+            try {
+                return call.execute();
+            } catch (IOException ex) {
+                throw rethrow(ex, declaredExceptions);
+            }
+        }
+    }
+
+    static final class Streaming extends CallAdapter {
+        private final Class<?>[] declaredExceptions;
+
+        Streaming(Type elementType, Class<?>[] declaredExceptions) {
+            super(elementType);
+            this.declaredExceptions = declaredExceptions;
+        }
+
+        @Override
+        Object adapt(HttpWorker<Object> call) throws Exception {
+            try {
+                return call.stream();
+            } catch (IOException ex) {
+                throw rethrow(ex, declaredExceptions);
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package com.magnet.processor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stops sending calls to a backend that is failing or too slow, so that callers fail fast
+ * with a {@link CircuitOpenException} instead of each waiting out its timeouts.
+ *
+ * <p>Each host has a circuit, or each service method with {@link Builder#perMethod}; a
+ * method with {@link com.magnet.annotations.CircuitBreakerPolicy} always has its own.
+ * A closed circuit records the outcome of the last {@code windowSize} calls. Once it has
+ * seen {@code minimumCalls} of them and the share that failed (I/O errors and 5xx
+ * responses) or took longer than {@code slowCallDuration} reaches its threshold, it
+ * opens, and calls are rejected without opening a socket. After {@code openDuration} it
+ * turns half-open and lets {@code halfOpenCalls} probe calls through: if they all succeed
+ * in time it closes, otherwise it opens again.
+ */
+
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Told about every state change of every circuit, on the thread of the call that
+     * caused it.
+     */
+    public interface Listener {
+        void onStateChange(String circuit, State from, State to);
+    }
+
+    private static final Listener NO_LISTENER = new Listener() {
+        @Override
+        public void onStateChange(String circuit, State from, State to) {
+        }
+    };
+
+    private final Settings settings;
+    private final boolean perMethod;
+    private final Listener listener;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    CircuitBreaker(Builder builder) {
+        settings = new Settings(builder.failureRateThreshold, builder.slowCallRateThreshold,
+                builder.slowCallNanos, builder.windowSize, builder.minimumCalls, builder.openNanos,
+                builder.halfOpenCalls);
+        perMethod = builder.perMethod;
+        listener = builder.listener;
+    }
+
+    /**
+     * Returns the state of the circuit of {@code circuit}, a host name or a service method
+     * as printed by {@link ServiceMethod#toString()}. Circuits that have not carried a call
+     * yet are closed.
+     */
+    public State state(String circuit) {
+        Circuit result = circuits.get(circuit);
+        return result != null ? result.state() : State.CLOSED;
+    }
+
+    /**
+     * Returns the circuit a call of {@code serviceMethod} to {@code host} goes through, or
+     * null if the method opted out.
+     */
+    Circuit circuit(String host, ServiceMethod serviceMethod) {
+        Policy policy = serviceMethod.circuitBreakerPolicy();
+        if (policy != null && !policy.enabled) {
+            return null;
+        }
+
+        String name = policy != null || perMethod ? serviceMethod.toString() : host;
+        Circuit circuit = circuits.get(name);
+        if (circuit == null) {
+            Circuit created = new Circuit(name, policy != null ? policy.applyTo(settings) : settings, listener);
+            circuit = circuits.putIfAbsent(name, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    static final class Settings {
+        final int failureRateThreshold;
+        final int slowCallRateThreshold;
+        final long slowCallNanos;
+        final int windowSize;
+        final int minimumCalls;
+        final long openNanos;
+        final int halfOpenCalls;
+
+        Settings(int failureRateThreshold, int slowCallRateThreshold, long slowCallNanos, int windowSize,
+                 int minimumCalls, long openNanos, int halfOpenCalls) {
+            this.failureRateThreshold = failureRateThreshold;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            this.slowCallNanos = slowCallNanos;
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            this.openNanos = openNanos;
+            this.halfOpenCalls = halfOpenCalls;
+        }
+    }
+
+    /**
+     * The settings of a {@link com.magnet.annotations.CircuitBreakerPolicy}; -1 keeps the
+     * client's.
+     */
+    static final class Policy {
+        final boolean enabled;
+        final int failureRateThreshold;
+        final int slowCallRateThreshold;
+        final long slowCallMillis;
+        final long openMillis;
+
+        Policy(boolean enabled, int failureRateThreshold, int slowCallRateThreshold, long slowCallMillis,
+               long openMillis) {
+            if (failureRateThreshold != -1 && (failureRateThreshold < 1 || failureRateThreshold > 100)) {
+                throw new IllegalArgumentException("failureRateThreshold not in [1, 100]: " + failureRateThreshold);
+            }
+            if (slowCallRateThreshold != -1 && (slowCallRateThreshold < 1 || slowCallRateThreshold > 100)) {
+                throw new IllegalArgumentException("slowCallRateThreshold not in [1, 100]: " + slowCallRateThreshold);
+            }
+            if (slowCallMillis != -1 && slowCallMillis <= 0) {
+                throw new IllegalArgumentException("slowCallMillis <= 0: " + slowCallMillis);
+            }
+            if (openMillis != -1 && openMillis <= 0) {
+                throw new IllegalArgumentException("openMillis <= 0: " + openMillis);
+            }
+            this.enabled = enabled;
+            this.failureRateThreshold = failureRateThreshold;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            this.slowCallMillis = slowCallMillis;
+            this.openMillis = openMillis;
+        }
+
+        Settings applyTo(Settings settings) {
+            return new Settings(
+                    failureRateThreshold != -1 ? failureRateThreshold : settings.failureRateThreshold,
+                    slowCallRateThreshold != -1 ? slowCallRateThreshold : settings.slowCallRateThreshold,
+                    slowCallMillis != -1 ? TimeUnit.MILLISECONDS.toNanos(slowCallMillis) : settings.slowCallNanos,
+                    settings.windowSize,
+                    settings.minimumCalls,
+                    openMillis != -1 ? TimeUnit.MILLISECONDS.toNanos(openMillis) : settings.openNanos,
+                    settings.halfOpenCalls);
+        }
+    }
+
+    /**
+     * The state of one host or method. Callers take a permit with {@link #acquire()} before
+     * sending and hand it back with exactly one of {@link #record} or {@link #release}.
+     * Outcomes of calls let through before the last state change are not counted.
+     */
+    static final class Circuit {
+        private static final byte FAILED = 1;
+        private static final byte SLOW = 2;
+
+        private final String name;
+        private final Settings settings;
+        private final Listener listener;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private State state = State.CLOSED;
+        private long generation;
+        private long openedAt;
+
+        private final byte[] window;
+        private int windowIndex;
+        private int windowCount;
+        private int failures;
+        private int slowCalls;
+
+        private int probesStarted;
+        private int probesSucceeded;
+
+        Circuit(String name, Settings settings, Listener listener) {
+            this.name = name;
+            this.settings = settings;
+            this.listener = listener;
+            this.window = new byte[settings.windowSize];
+        }
+
+        State state() {
+            lock.lock();
+            try {
+                return state;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long acquire() throws CircuitOpenException {
+            State from = null;
+            long permit;
+            lock.lock();
+            try {
+                if (state == State.OPEN) {
+                    if (System.nanoTime() - openedAt < settings.openNanos) {
+                        throw new CircuitOpenException(name);
+                    }
+                    from = transition(State.HALF_OPEN);
+                }
+                if (state == State.HALF_OPEN) {
+                    if (probesStarted >= settings.halfOpenCalls) {
+                        throw new CircuitOpenException(name);
+                    }
+                    probesStarted++;
+                }
+                permit = generation;
+            } finally {
+                lock.unlock();
+            }
+            notify(from, State.HALF_OPEN);
+            return permit;
+        }
+
+        void record(long permit, boolean failed, long durationNanos) {
+            boolean slow = durationNanos >= settings.slowCallNanos;
+            State from = null;
+            State to = null;
+            lock.lock();
+            try {
+                if (permit != generation) {
+                    return;
+                }
+                if (state == State.HALF_OPEN) {
+                    if (failed || slow) {
+                        from = transition(State.OPEN);
+                        to = State.OPEN;
+                    } else if (++probesSucceeded >= settings.halfOpenCalls) {
+                        from = transition(State.CLOSED);
+                        to = State.CLOSED;
+                    }
+                } else if (state == State.CLOSED) {
+                    add((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+                    if (windowCount >= settings.minimumCalls
+                            && (failures * 100 >= settings.failureRateThreshold * windowCount
+                            || slowCalls * 100 >= settings.slowCallRateThreshold * windowCount)) {
+                        from = transition(State.OPEN);
+                        to = State.OPEN;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            notify(from, to);
+        }
+
+        /**
+         * Hands back a permit whose call ended without an outcome worth counting, such as
+         * an error building the request.
+         */
+        void release(long permit) {
+            lock.lock();
+            try {
+                if (permit == generation && state == State.HALF_OPEN) {
+                    probesStarted--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void add(byte outcome) {
+            if (windowCount == window.length) {
+                byte evicted = window[windowIndex];
+                failures -= evicted & FAILED;
+                slowCalls -= (evicted & SLOW) >> 1;
+            } else {
+                windowCount++;
+            }
+            window[windowIndex] = outcome;
+            windowIndex = (windowIndex + 1) % window.length;
+            failures += outcome & FAILED;
+            slowCalls += (outcome & SLOW) >> 1;
+        }
+
+        private State transition(State to) {
+            State from = state;
+            state = to;
+            generation++;
+            probesStarted = 0;
+            probesSucceeded = 0;
+            if (to == State.OPEN) {
+                openedAt = System.nanoTime();
+            } else if (to == State.CLOSED) {
+                windowIndex = 0;
+                windowCount = 0;
+                failures = 0;
+                slowCalls = 0;
+            }
+            return from;
+        }
+
+        private void notify(State from, State to) {
+            if (from != null) {
+                listener.onStateChange(name, from, to);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private int failureRateThreshold = 50;
+        private int slowCallRateThreshold = 100;
+        private long slowCallNanos = TimeUnit.SECONDS.toNanos(3);
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private long openNanos = TimeUnit.SECONDS.toNanos(30);
+        private int halfOpenCalls = 3;
+        private boolean perMethod;
+        private Listener listener = NO_LISTENER;
+
+        /**
+         * Sets the percentage of failed calls in the window that opens the circuit.
+         * Defaults to 50.
+         */
+        public Builder failureRateThreshold(int percent) {
+            if (percent < 1 || percent > 100) {
+                throw new IllegalArgumentException("percent not in [1, 100]: " + percent);
+            }
+            this.failureRateThreshold = percent;
+            return this;
+        }
+
+        /**
+         * Sets the percentage of slow calls in the window that opens the circuit. Defaults
+         * to 100.
+         */
+        public Builder slowCallRateThreshold(int percent) {
+            if (percent < 1 || percent > 100) {
+                throw new IllegalArgumentException("percent not in [1, 100]: " + percent);
+            }
+            this.slowCallRateThreshold = percent;
+            return this;
+        }
+
+        /**
+         * Sets how long a call may wait for its response headers before it counts as slow.
+         * Defaults to 3 seconds.
+         */
+        public Builder slowCallDuration(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("duration <= 0: " + duration);
+            }
+            this.slowCallNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Sets how many of the latest calls the rates are computed over, and how many of
+         * them a circuit must have seen before it may open. Defaults to 20 and 10.
+         */
+        public Builder window(int windowSize, int minimumCalls) {
+            if (windowSize < 1) {
+                throw new IllegalArgumentException("windowSize < 1: " + windowSize);
+            }
+            if (minimumCalls < 1 || minimumCalls > windowSize) {
+                throw new IllegalArgumentException("minimumCalls not in [1, windowSize]: " + minimumCalls);
+            }
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * Sets how long an open circuit rejects calls before it lets probes through.
+         * Defaults to 30 seconds.
+         */
+        public Builder openDuration(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("duration <= 0: " + duration);
+            }
+            this.openNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Sets how many probe calls a half-open circuit lets through. Defaults to 3.
+         */
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            if (halfOpenCalls < 1) {
+                throw new IllegalArgumentException("halfOpenCalls < 1: " + halfOpenCalls);
+            }
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        /**
+         * Gives every service method its own circuit instead of one per host.
+         */
+        public Builder perMethod(boolean perMethod) {
+            this.perMethod = perMethod;
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener == null");
+            }
+            this.listener = listener;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a call whose circuit is open, or half-open with all of its
+ * probe calls already running.
+ */
+
+public final class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String circuit;
+
+    CircuitOpenException(String circuit) {
+        super("Circuit " + circuit + " is open");
+        this.circuit = circuit;
+    }
+
+    /**
+     * Returns the host or service method the circuit belongs to.
+     */
+    public String circuit() {
+        return circuit;
+    }
+}
@@ -0,0 +1,257 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Counters that show how often a call reused a keep-alive connection instead of opening
+ * its own, and the keep-alive settings of the JDK's connection caches.
+ *
+ * <p>Both JDK clients keep their idle connections in a JVM-wide cache that reads its
+ * limits from system properties once, when the first connection is made. They are left
+ * alone unless the application calls {@link #install}, before any HTTP traffic in the
+ * process.
+ *
+ * <p>The JDK offers no hook on plain TCP connects, so the counters cover HTTPS calls:
+ * every new connection there performs a TLS handshake through a socket factory or
+ * context the transport supplies, and is counted. Plain HTTP requests are only counted
+ * apart, in {@link #plainRequestCount()}.
+ */
+
+public final class ConnectionPool {
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicLong plainRequestCount = new AtomicLong();
+
+    private SSLSocketFactory socketFactory;
+    private SSLContext sslContext;
+
+    /**
+     * Sets the keep-alive limits of both JDK clients for the whole JVM, through the system
+     * properties they read when their first connection is made, so this must run before
+     * any HTTP traffic in the process. {@link HttpUrlConnectionTransport} keeps up to
+     * {@code maxIdleConnectionsPerHost} idle connections per host
+     * ({@code http.maxConnections}) for {@code keepAliveDuration}
+     * ({@code http.keepAlive.time.server}); {@link HttpClientTransport} has no per-host
+     * limit and only takes the duration ({@code jdk.httpclient.keepalive.timeout}).
+     * Properties already set, e.g. on the command line, take precedence.
+     */
+    public static void install(int maxIdleConnectionsPerHost, long keepAliveDuration, TimeUnit timeUnit) {
+        if (maxIdleConnectionsPerHost < 0) {
+            throw new IllegalArgumentException("maxIdleConnectionsPerHost < 0: " + maxIdleConnectionsPerHost);
+        }
+        if (keepAliveDuration <= 0) {
+            throw new IllegalArgumentException("keepAliveDuration <= 0: " + keepAliveDuration);
+        }
+        if (timeUnit == null) {
+            throw new IllegalArgumentException("timeUnit == null");
+        }
+        String keepAliveSeconds = Long.toString(Math.max(1, timeUnit.toSeconds(keepAliveDuration)));
+        setIfAbsent("http.maxConnections", Integer.toString(maxIdleConnectionsPerHost));
+        setIfAbsent("http.keepAlive.time.server", keepAliveSeconds);
+        setIfAbsent("jdk.httpclient.keepalive.timeout", keepAliveSeconds);
+    }
+
+    /**
+     * Number of HTTPS requests sent.
+     */
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Number of HTTPS connections opened, each costing a TCP and a TLS handshake.
+     */
+    public long connectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Number of HTTPS requests that went out on a connection opened earlier.
+     */
+    public long reusedConnectionCount() {
+        return Math.max(0, requestCount.get() - connectionCount.get());
+    }
+
+    /**
+     * Number of plain HTTP requests sent, whose connections cannot be counted.
+     */
+    public long plainRequestCount() {
+        return plainRequestCount.get();
+    }
+
+    void trackRequest(String url) {
+        if (url.regionMatches(true, 0, "https:", 0, 6)) {
+            requestCount.incrementAndGet();
+        } else {
+            plainRequestCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the default HTTPS socket factory wrapped to count new connections. The same
+     * instance is returned every time: the JDK only reuses an idle connection for a
+     * request that uses the socket factory it was opened with.
+     */
+    synchronized SSLSocketFactory socketFactory() {
+        if (socketFactory == null) {
+            socketFactory = new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), connectionCount);
+        }
+        return socketFactory;
+    }
+
+    /**
+     * Returns the default SSL context wrapped to count the engines it creates, one per
+     * new connection.
+     */
+    synchronized SSLContext sslContext() throws NoSuchAlgorithmException {
+        if (sslContext == null) {
+            SSLContext delegate = SSLContext.getDefault();
+            sslContext = new SSLContext(new CountingContextSpi(delegate, connectionCount),
+                    delegate.getProvider(), delegate.getProtocol()) {
+            };
+        }
+        return sslContext;
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    private static final class CountingSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+        private final AtomicLong count;
+
+        CountingSocketFactory(SSLSocketFactory delegate, AtomicLong count) {
+            this.delegate = delegate;
+            this.count = count;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            count.incrementAndGet();
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            count.incrementAndGet();
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            count.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            count.incrementAndGet();
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            count.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            count.incrementAndGet();
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    private static final class CountingContextSpi extends SSLContextSpi {
+
+        private final SSLContext delegate;
+        private final AtomicLong count;
+
+        CountingContextSpi(SSLContext delegate, AtomicLong count) {
+            this.delegate = delegate;
+            this.count = count;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom random)
+                throws KeyManagementException {
+            throw new KeyManagementException("Already initialized");
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            count.incrementAndGet();
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            count.incrementAndGet();
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+}
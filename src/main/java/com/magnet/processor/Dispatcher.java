@@ -0,0 +1,265 @@
+package com.magnet.processor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link HttpWorker} calls on an {@link ExecutorService}, limiting how many calls
+ * run at once overall and per host. Calls over either limit wait in a queue until a
+ * running call finishes. Calls held back by a {@link RateLimiter} wait on a timer, without
+ * a thread, until their turn and then join the queue. The second requests of
+ * {@link Hedging} count against the same limits, but never wait in the queue.
+ */
+
+public class Dispatcher {
+
+    private static final int DEFAULT_MAX_REQUESTS = 64;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    private ExecutorService executorService;
+    private ScheduledThreadPoolExecutor timer;
+    private int delayedCalls;
+
+    private final Deque<HttpWorker<?>> readyCalls = new ArrayDeque<>();
+    private final Deque<HttpWorker<?>> runningCalls = new ArrayDeque<>();
+    private final List<String> runningHedges = new ArrayList<>();
+
+    public Dispatcher() {
+    }
+
+    public Dispatcher(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public synchronized ExecutorService executorService() {
+        if (executorService == null) {
+            executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), threadFactory("Magnet Dispatcher"));
+        }
+        return executorService;
+    }
+
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("max < 1: " + maxRequests);
+        }
+        Map<HttpWorker<?>, RejectedExecutionException> rejected = new LinkedHashMap<>();
+        synchronized (this) {
+            this.maxRequests = maxRequests;
+            promoteCalls(rejected);
+        }
+        reject(rejected);
+    }
+
+    public synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("max < 1: " + maxRequestsPerHost);
+        }
+        Map<HttpWorker<?>, RejectedExecutionException> rejected = new LinkedHashMap<>();
+        synchronized (this) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            promoteCalls(rejected);
+        }
+        reject(rejected);
+    }
+
+    public synchronized int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public synchronized int queuedCallsCount() {
+        return readyCalls.size();
+    }
+
+    public synchronized int runningCallsCount() {
+        return runningCalls.size();
+    }
+
+    /**
+     * Returns the number of calls waiting for their rate limit before they are queued.
+     */
+    public synchronized int delayedCallsCount() {
+        return delayedCalls;
+    }
+
+    /**
+     * Enqueues {@code call} once {@code delayNanos} have passed.
+     */
+    void enqueue(final HttpWorker<?> call, long delayNanos) {
+        if (delayNanos <= 0) {
+            enqueue(call);
+            return;
+        }
+        ScheduledThreadPoolExecutor timer;
+        synchronized (this) {
+            if (this.timer == null) {
+                this.timer = new ScheduledThreadPoolExecutor(1, threadFactory("Magnet Dispatcher Timer"));
+            }
+            timer = this.timer;
+            delayedCalls++;
+        }
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Dispatcher.this) {
+                    delayedCalls--;
+                }
+                enqueue(call);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void enqueue(HttpWorker<?> call) {
+        Map<HttpWorker<?>, RejectedExecutionException> rejected = new LinkedHashMap<>();
+        synchronized (this) {
+            if (runningCount() < maxRequests && runningForHost(call.host()) < maxRequestsPerHost) {
+                runningCalls.add(call);
+                submit(call, rejected);
+            } else {
+                readyCalls.add(call);
+            }
+        }
+        reject(rejected);
+    }
+
+    void finished(HttpWorker<?> call) {
+        Map<HttpWorker<?>, RejectedExecutionException> rejected = new LinkedHashMap<>();
+        synchronized (this) {
+            if (!runningCalls.remove(call)) {
+                throw new AssertionError("Call wasn't in-flight!");
+            }
+            promoteCalls(rejected);
+        }
+        reject(rejected);
+    }
+
+    /**
+     * Runs {@code hedge}, the second request of a call to {@code host}, if the limits leave
+     * room for it, and counts it as running until it finishes. Returns false if it was not
+     * run: a hedge that waited in the queue would come too late to help.
+     */
+    boolean executeHedge(final String host, final Runnable hedge) {
+        synchronized (this) {
+            if (runningCount() >= maxRequests || runningForHost(host) >= maxRequestsPerHost) {
+                return false;
+            }
+            runningHedges.add(host);
+        }
+        try {
+            executorService().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        hedge.run();
+                    } finally {
+                        hedgeFinished(host);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            hedgeFinished(host);
+            return false;
+        }
+    }
+
+    private void hedgeFinished(String host) {
+        Map<HttpWorker<?>, RejectedExecutionException> rejected = new LinkedHashMap<>();
+        synchronized (this) {
+            runningHedges.remove(host);
+            promoteCalls(rejected);
+        }
+        reject(rejected);
+    }
+
+    private void promoteCalls(Map<HttpWorker<?>, RejectedExecutionException> rejected) {
+        if (runningCount() >= maxRequests) {
+            return;
+        }
+
+        for (Iterator<HttpWorker<?>> i = readyCalls.iterator(); i.hasNext(); ) {
+            HttpWorker<?> call = i.next();
+            if (runningForHost(call.host()) < maxRequestsPerHost) {
+                i.remove();
+                runningCalls.add(call);
+                submit(call, rejected);
+            }
+
+            if (runningCount() >= maxRequests) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands {@code call} to the executor. A call the executor refuses is added to
+     * {@code rejected}, to be failed by {@link #reject} once the lock is released, since
+     * failing it runs its callback.
+     */
+    private void submit(HttpWorker<?> call, Map<HttpWorker<?>, RejectedExecutionException> rejected) {
+        try {
+            executorService().execute(call);
+        } catch (RejectedExecutionException ex) {
+            runningCalls.remove(call);
+            rejected.put(call, ex);
+        }
+    }
+
+    private static void reject(Map<HttpWorker<?>, RejectedExecutionException> rejected) {
+        for (Map.Entry<HttpWorker<?>, RejectedExecutionException> call : rejected.entrySet()) {
+            call.getKey().rejected(call.getValue());
+        }
+    }
+
+    private int runningCount() {
+        return runningCalls.size() + runningHedges.size();
+    }
+
+    private int runningForHost(String host) {
+        int result = 0;
+        for (HttpWorker<?> c : runningCalls) {
+            if (c.host().equals(host)) {
+                result++;
+            }
+        }
+        for (String hedgeHost : runningHedges) {
+            if (hedgeHost.equals(host)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.magnet.processor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * Resolves host names to the addresses calls connect to. Set one with
+ * {@link Magnet.Builder#dns(Dns)}; {@link CachingDns} keeps results in process with
+ * per-host TTLs, and {@link StaticDns} answers from a fixed host map.
+ *
+ * <p>Both transports connect through {@link InetAddress}, so calls only resolve through
+ * this resolver once the application opts in to {@link MagnetResolverProvider}, which
+ * replaces the JVM's resolver. The JVM still caches the answers for
+ * {@code networkaddress.cache.ttl} seconds in front of it; set that security property to
+ * 0 to leave expiry to the {@code Dns} alone.
+ */
+
+public interface Dns {
+
+    /**
+     * The JVM's built-in resolver.
+     */
+    Dns SYSTEM = new Dns() {
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            return MagnetResolverProvider.lookupBuiltin(hostname);
+        }
+    };
+
+    /**
+     * Returns the addresses of {@code hostname}, in the order they should be tried.
+     * Never returns an empty list.
+     */
+    List<InetAddress> lookup(String hostname) throws UnknownHostException;
+}
@@ -0,0 +1,47 @@
+package com.magnet.processor;
+
+/**
+ * Observes the progress of each call. Every event names the {@link ServiceMethod} being
+ * called and, after {@link #callStart}, the nanoseconds elapsed since the call started.
+ * Events are delivered on the thread running the call, so implementations must be fast and
+ * thread-safe. Override only the events you need.
+ */
+
+public abstract class EventListener {
+
+    public static final EventListener NONE = new EventListener() {
+    };
+
+    public void callStart(ServiceMethod method) {
+    }
+
+    public void requestBuildEnd(ServiceMethod method, long elapsedNanos) {
+    }
+
+    public void connectStart(ServiceMethod method, long elapsedNanos) {
+    }
+
+    public void connectEnd(ServiceMethod method, long elapsedNanos) {
+    }
+
+    public void requestBodyEnd(ServiceMethod method, long elapsedNanos) {
+    }
+
+    /**
+     * The response status line and headers have arrived.
+     */
+    public void responseStart(ServiceMethod method, long elapsedNanos) {
+    }
+
+    public void responseBodyEnd(ServiceMethod method, long elapsedNanos) {
+    }
+
+    public void deserializationEnd(ServiceMethod method, long elapsedNanos) {
+    }
+
+    public void callEnd(ServiceMethod method, long elapsedNanos) {
+    }
+
+    public void callFailed(ServiceMethod method, long elapsedNanos, Exception ex) {
+    }
+}
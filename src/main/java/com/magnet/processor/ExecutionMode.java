@@ -0,0 +1,42 @@
+package com.magnet.processor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Selects the threads the default {@link Dispatcher} runs calls on.
+ */
+
+public enum ExecutionMode {
+
+    /**
+     * A cached pool of daemon platform threads.
+     */
+    PLATFORM_THREADS {
+        @Override
+        ExecutorService newExecutorService() {
+            return null;
+        }
+    },
+
+    /**
+     * One virtual thread per call. Blocking connection I/O then parks the virtual thread
+     * instead of holding a platform thread, so tens of thousands of calls can be in flight
+     * at once. Raise {@link Dispatcher#setMaxRequests} and
+     * {@link Dispatcher#setMaxRequestsPerHost} to let that many run concurrently.
+     */
+    VIRTUAL_THREADS {
+        @Override
+        ExecutorService newExecutorService() {
+            ThreadFactory factory = Thread.ofVirtual().name("Magnet Dispatcher #", 1).factory();
+            return Executors.newThreadPerTaskExecutor(factory);
+        }
+    };
+
+    /**
+     * Returns the executor for this mode, or null to let the {@link Dispatcher} create its
+     * default pool.
+     */
+    abstract ExecutorService newExecutorService();
+}
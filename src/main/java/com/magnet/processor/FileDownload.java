@@ -0,0 +1,169 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Downloads a response body to a file. The body goes to {@code <target>.part} through
+ * {@link FileChannel#transferFrom}, which moves it in small chunks without building it up
+ * in heap, and the part file is renamed to the target once complete. The validator of the
+ * response (a strong ETag, or else Last-Modified) is kept in {@code <target>.part.meta}, so
+ * that a later call can ask for the rest with {@code Range} and {@code If-Range}.
+ */
+
+final class FileDownload {
+
+    private static final long CHUNK_SIZE = 64 * 1024;
+
+    private final Path target;
+    private final Path part;
+    private final Path meta;
+    private long offset;
+    private String validator;
+
+    FileDownload(Path target) throws IOException {
+        this.target = target;
+        this.part = target.resolveSibling(target.getFileName() + ".part");
+        this.meta = target.resolveSibling(target.getFileName() + ".part.meta");
+
+        if (Files.isRegularFile(part) && Files.isRegularFile(meta)) {
+            validator = new String(Files.readAllBytes(meta), StandardCharsets.UTF_8).trim();
+            offset = Files.size(part);
+        }
+        if (validator == null || validator.isEmpty() || offset == 0) {
+            discard();
+        }
+    }
+
+    boolean isResuming() {
+        return offset > 0;
+    }
+
+    Map<String, String> requestHeaders() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        // Ranges apply to the encoded body, so ask for the file as it is stored.
+        headers.put("Accept-Encoding", "identity");
+        if (offset > 0) {
+            headers.put("Range", "bytes=" + offset + "-");
+            headers.put("If-Range", validator);
+        }
+        return headers;
+    }
+
+    void discard() throws IOException {
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(meta);
+        offset = 0;
+        validator = null;
+    }
+
+    /**
+     * Writes the body of a {@code 200} or {@code 206} {@code response} to the part file:
+     * appended to what is there if the server sent the requested range, from the start
+     * otherwise.
+     */
+    void writeFrom(Response response, ProgressListener listener) throws IOException {
+        long start = 0;
+        long total = parseLong(response.header("Content-Length"));
+        if (response.code() == 206) {
+            String contentRange = response.header("Content-Range");
+            start = contentRangeStart(contentRange);
+            if (start != offset) {
+                throw new IOException("Unexpected Content-Range " + contentRange + " resuming at " + offset);
+            }
+            total = contentRangeLength(contentRange);
+        }
+
+        String newValidator = validator(response);
+        if (start == 0) {
+            if (newValidator != null) {
+                Files.write(meta, newValidator.getBytes(StandardCharsets.UTF_8));
+            } else {
+                Files.deleteIfExists(meta);
+            }
+        }
+
+        Files.createDirectories(part.toAbsolutePath().getParent());
+        FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (start == 0) {
+                file.truncate(0);
+            }
+            ReadableByteChannel source = Channels.newChannel(response.body());
+            long position = start;
+            long transferred;
+            while ((transferred = file.transferFrom(source, position, CHUNK_SIZE)) > 0) {
+                position += transferred;
+                if (listener != null) {
+                    listener.onProgress(position, total);
+                }
+            }
+            if (total != -1 && position != total) {
+                throw new IOException("Download ended at " + position + " of " + total + " bytes");
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    void complete() throws IOException {
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(meta);
+    }
+
+    /**
+     * Returns the validator to send as If-Range. Weak ETags cannot be used there.
+     */
+    private static String validator(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /** Parses the first byte position of {@code bytes first-last/length}. */
+    private static long contentRangeStart(String contentRange) throws IOException {
+        if (contentRange != null && contentRange.startsWith("bytes ")) {
+            int dash = contentRange.indexOf('-');
+            if (dash != -1) {
+                long start = parseLong(contentRange.substring(6, dash));
+                if (start != -1) {
+                    return start;
+                }
+            }
+        }
+        throw new IOException("Malformed Content-Range: " + contentRange);
+    }
+
+    /** Parses the complete length of {@code bytes first-last/length}, or -1 if it is {@code *}. */
+    private static long contentRangeLength(String contentRange) {
+        int slash = contentRange.indexOf('/');
+        return slash != -1 ? parseLong(contentRange.substring(slash + 1)) : -1;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races a request against a copy of itself sent after a delay. The first request runs on
+ * the calling thread; the copy, if the delay passes and both the budget and the
+ * dispatcher's limits allow, on the dispatcher. The first response wins and the other
+ * exchange is cancelled. A request that fails fast, before the copy was sent, fails the
+ * call as it would without hedging.
+ */
+
+final class HedgedCall {
+
+    private final Transport transport;
+    private final Request request;
+    private final Hedging hedging;
+    private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+    // Guarded by this.
+    private final List<Transport.Exchange> exchanges = new ArrayList<>(2);
+    private int running;
+    private boolean done;
+    private Transport.Exchange hedge;
+    private IOException failure;
+
+    HedgedCall(Transport transport, Request request, Hedging hedging) {
+        this.transport = transport;
+        this.request = request;
+        this.hedging = hedging;
+    }
+
+    Response execute(final Dispatcher dispatcher, final String host, long delayNanos) throws IOException {
+        synchronized (this) {
+            running = 1;
+        }
+        hedging.deposit();
+        ScheduledFuture<?> timer = hedging.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                sendHedge(dispatcher, host);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+
+        try {
+            attempt(false);
+            return result.get();
+        } catch (InterruptedException ex) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.url());
+        } catch (ExecutionException ex) {
+            throw (IOException) ex.getCause();
+        } finally {
+            timer.cancel(false);
+        }
+    }
+
+    private void sendHedge(Dispatcher dispatcher, String host) {
+        synchronized (this) {
+            if (done || !hedging.tryHedge()) {
+                return;
+            }
+            running++;
+        }
+        boolean sent = dispatcher.executeHedge(host, new Runnable() {
+            @Override
+            public void run() {
+                attempt(true);
+            }
+        });
+        if (!sent) {
+            hedging.refund();
+            notSent();
+        }
+    }
+
+    /**
+     * Settles the call for a hedge the dispatcher had no room for, which leaves the call to
+     * the first request.
+     */
+    private void notSent() {
+        synchronized (this) {
+            running--;
+            if (done || running > 0) {
+                return;
+            }
+            done = true;
+        }
+        result.completeExceptionally(failure);
+    }
+
+    private void attempt(boolean isHedge) {
+        Transport.Exchange exchange;
+        try {
+            exchange = transport.newExchange(request);
+        } catch (IOException ex) {
+            failed(ex);
+            return;
+        }
+        synchronized (this) {
+            if (done) {
+                running--;
+                return;
+            }
+            exchanges.add(exchange);
+            if (isHedge) {
+                hedge = exchange;
+            }
+        }
+
+        Response response;
+        try {
+            exchange.connect();
+            exchange.writeRequest();
+            response = exchange.readResponse();
+        } catch (IOException ex) {
+            exchange.cancel();
+            failed(ex);
+            return;
+        } catch (RuntimeException ex) {
+            // Fail the call rather than leave it waiting for an attempt that died.
+            exchange.cancel();
+            failed(new IOException(ex));
+            return;
+        }
+        succeeded(exchange, response);
+    }
+
+    private void succeeded(Transport.Exchange exchange, Response response) {
+        List<Transport.Exchange> losers = new ArrayList<>(1);
+        boolean lost;
+        synchronized (this) {
+            running--;
+            lost = done;
+            if (!lost) {
+                done = true;
+                for (Transport.Exchange other : exchanges) {
+                    if (other != exchange) {
+                        losers.add(other);
+                    }
+                }
+                if (exchange == hedge) {
+                    hedging.hedgeWon();
+                }
+            }
+        }
+        if (lost) {
+            // Answered just after the other request; drop the connection rather than
+            // read a body nobody wants.
+            exchange.cancel();
+            try {
+                response.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        for (Transport.Exchange loser : losers) {
+            loser.cancel();
+        }
+        result.complete(response);
+    }
+
+    private void failed(IOException ex) {
+        synchronized (this) {
+            running--;
+            if (failure == null) {
+                failure = ex;
+            }
+            // Wait for a request still in flight, but do not send the copy of one that
+            // failed before its delay passed.
+            if (done || running > 0) {
+                return;
+            }
+            done = true;
+        }
+        result.completeExceptionally(failure);
+    }
+
+    /**
+     * Aborts every request of the call, including a winner whose body is being read.
+     */
+    void cancel() {
+        List<Transport.Exchange> cancelled;
+        synchronized (this) {
+            done = true;
+            cancelled = new ArrayList<>(exchanges);
+        }
+        for (Transport.Exchange exchange : cancelled) {
+            exchange.cancel();
+        }
+        result.completeExceptionally(new IOException("Canceled: " + request.url()));
+    }
+}
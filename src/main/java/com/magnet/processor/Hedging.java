@@ -0,0 +1,204 @@
+package com.magnet.processor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a second, identical request when a call has not got its response headers within a
+ * delay, and takes whichever response comes first; the other request is cancelled and its
+ * connection released. This trims the tail latency that a single slow server or connection
+ * adds to a call, at the price of some extra requests.
+ *
+ * <p>Only {@code GET} methods and methods marked {@link com.magnet.annotations.Idempotent}
+ * are hedged, and never those that download to a file. The delay is fixed, or with
+ * {@link Builder#percentile} the method's observed latency at that percentile once it has
+ * made {@code minSamples} calls. A budget caps the hedges at a percentage of the calls, so
+ * that a backend that is slow for everyone does not also get more requests.
+ */
+
+public final class Hedging {
+
+    /**
+     * Hedges the budget may save up for a burst, in thousandths.
+     */
+    private static final long MAX_BUDGET = 10_000;
+
+    private final long delayNanos;
+    private final double percentile;
+    private final int minSamples;
+    private final long budgetPerCall;
+
+    private final Map<ServiceMethod, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong budget = new AtomicLong(MAX_BUDGET);
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    Hedging(Builder builder) {
+        delayNanos = builder.delayNanos;
+        percentile = builder.percentile;
+        minSamples = builder.minSamples;
+        budgetPerCall = Math.round(builder.budgetPercent * 10);
+
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Magnet Hedging");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Number of second requests sent.
+     */
+    public long hedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Number of calls answered by their second request.
+     */
+    public long hedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Returns the observed time to response headers of {@code serviceMethod}, or null if
+     * it has not been hedged yet.
+     */
+    public LatencyHistogram latency(ServiceMethod serviceMethod) {
+        return latencies.get(serviceMethod);
+    }
+
+    boolean isEligible(ServiceMethod serviceMethod) {
+        return serviceMethod.isIdempotent() && !serviceMethod.isDownload();
+    }
+
+    long delayNanos(ServiceMethod serviceMethod) {
+        if (percentile == 0) {
+            return delayNanos;
+        }
+        LatencyHistogram histogram = latencies.get(serviceMethod);
+        if (histogram == null || histogram.count() < minSamples) {
+            return delayNanos;
+        }
+        return histogram.percentile(percentile);
+    }
+
+    void record(ServiceMethod serviceMethod, long nanos) {
+        LatencyHistogram histogram = latencies.get(serviceMethod);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = latencies.putIfAbsent(serviceMethod, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Credits the budget with the share of a hedge each call earns.
+     */
+    void deposit() {
+        long current;
+        do {
+            current = budget.get();
+            if (current >= MAX_BUDGET) {
+                return;
+            }
+        } while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + budgetPerCall)));
+    }
+
+    /**
+     * Takes one hedge from the budget, returning false if it has none left.
+     */
+    boolean tryHedge() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < 1000) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - 1000));
+        hedgeCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Gives back a hedge taken with {@link #tryHedge()} that was not sent.
+     */
+    void refund() {
+        hedgeCount.decrementAndGet();
+        budget.addAndGet(1000);
+    }
+
+    void hedgeWon() {
+        hedgeWinCount.incrementAndGet();
+    }
+
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    public static final class Builder {
+        private long delayNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        private double percentile;
+        private int minSamples = 20;
+        private double budgetPercent = 5;
+
+        /**
+         * Sets how long a call waits for its response headers before the second request is
+         * sent, or the delay used until {@link #percentile} has enough samples. Defaults to
+         * 100 milliseconds.
+         */
+        public Builder delay(long delay, TimeUnit unit) {
+            if (delay < 0) {
+                throw new IllegalArgumentException("delay < 0: " + delay);
+            }
+            this.delayNanos = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * Waits for each method's observed latency at {@code percentile}, e.g. 95, instead
+         * of a fixed delay once the method has made {@code minSamples} calls.
+         */
+        public Builder percentile(double percentile, int minSamples) {
+            if (!(percentile > 0 && percentile < 100)) {
+                throw new IllegalArgumentException("percentile not in (0, 100): " + percentile);
+            }
+            if (minSamples < 1) {
+                throw new IllegalArgumentException("minSamples < 1: " + minSamples);
+            }
+            this.percentile = percentile;
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Sets the most hedges sent, as a percentage of the calls of eligible methods.
+         * Defaults to 5; up to 10 unused hedges are saved for a burst.
+         */
+        public Builder budget(double percent) {
+            if (!(percent > 0 && percent <= 100)) {
+                throw new IllegalArgumentException("percent not in (0, 100]: " + percent);
+            }
+            this.budgetPercent = percent;
+            return this;
+        }
+
+        public Hedging build() {
+            return new Hedging(this);
+        }
+    }
+}
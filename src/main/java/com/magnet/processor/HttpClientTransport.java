@@ -0,0 +1,586 @@
+package com.magnet.processor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.UnresolvedAddressException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A transport on {@link HttpClient}. Calls to the same origin share a few pooled
+ * connections and, over HTTPS, are multiplexed as concurrent HTTP/2 streams on one of
+ * them. Requests are sent with {@link HttpClient#sendAsync}, so no thread is tied up while
+ * the client waits on the socket; the calling worker only waits for the response headers.
+ *
+ * <p>The client opens connections lazily when a request is sent, so the connect events
+ * of an {@link EventListener} mark no work of their own with this transport. A client's
+ * connect timeout is fixed when it is built, so calls with different connect timeouts go
+ * through separate clients and do not share connections.
+ */
+
+public final class HttpClientTransport implements Transport {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+
+    /** Headers the client sets itself and refuses to take from a request. */
+    private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        RESTRICTED_HEADERS.addAll(new HashSet<>(Arrays.asList(
+                "Connection", "Content-Length", "Expect", "Host", "Upgrade")));
+    }
+
+    private final HttpClient client;
+    private final ConnectionPool connectionPool;
+    private final Map<Integer, HttpClient> clients = new ConcurrentHashMap<>();
+
+    public HttpClientTransport() {
+        this(new ConnectionPool());
+    }
+
+    public HttpClientTransport(ConnectionPool connectionPool) {
+        if (connectionPool == null) {
+            throw new IllegalArgumentException("connectionPool == null");
+        }
+        this.connectionPool = connectionPool;
+        this.client = client(DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sends calls with a client configured by the caller. Its connections are not counted,
+     * so {@link #connectionPool()} returns null, and its own connect timeout applies to
+     * every call.
+     */
+    public HttpClientTransport(HttpClient client) {
+        if (client == null) {
+            throw new IllegalArgumentException("client == null");
+        }
+        this.client = client;
+        this.connectionPool = null;
+    }
+
+    /**
+     * Returns the client given to this transport, or else the one that sends calls with
+     * the default connect timeout of 5 seconds.
+     */
+    public HttpClient client() {
+        return client;
+    }
+
+    public ConnectionPool connectionPool() {
+        return connectionPool;
+    }
+
+    @Override
+    public Exchange newExchange(Request request) throws IOException {
+        if (connectionPool != null) {
+            connectionPool.trackRequest(request.url());
+        }
+        HttpClient client = connectionPool != null ? client(request.connectTimeoutMillis()) : this.client;
+        return new ClientExchange(client, request);
+    }
+
+    private HttpClient client(int connectTimeoutMillis) {
+        HttpClient client = clients.get(connectTimeoutMillis);
+        if (client != null) {
+            return client;
+        }
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (connectTimeoutMillis > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+        }
+        try {
+            builder.sslContext(connectionPool.sslContext());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("No default SSLContext", ex);
+        }
+        HttpClient created = builder.build();
+        client = clients.putIfAbsent(connectTimeoutMillis, created);
+        if (client != null) {
+            created.close();
+            return client;
+        }
+        return created;
+    }
+
+    private static final class ClientExchange implements Exchange {
+
+        private final HttpClient client;
+        private final Request request;
+        private final HttpRequest httpRequest;
+        private final StreamingPublisher publisher;
+        private volatile CompletableFuture<HttpResponse<InputStream>> response;
+        private volatile boolean cancelled;
+
+        ClientExchange(HttpClient client, Request request) throws IOException {
+            this.client = client;
+            this.request = request;
+
+            HttpRequest.Builder builder;
+            try {
+                builder = HttpRequest.newBuilder(URI.create(request.url()));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Invalid url: " + request.url(), ex);
+            }
+            if (request.readTimeoutMillis() > 0) {
+                builder.timeout(Duration.ofMillis(request.readTimeoutMillis()));
+            }
+            for (Map.Entry<String, String> header : request.headers().entrySet()) {
+                if (!RESTRICTED_HEADERS.contains(header.getKey())) {
+                    builder.header(header.getKey(), header.getValue());
+                }
+            }
+
+            RequestBody body = request.body();
+            if (body != null) {
+                if (body.contentType() != null && request.header("Content-Type") == null) {
+                    builder.header("Content-Type", body.contentType());
+                }
+                publisher = new StreamingPublisher(body);
+                builder.method(request.method(), publisher);
+            } else {
+                publisher = null;
+                builder.method(request.method(), HttpRequest.BodyPublishers.noBody());
+            }
+            this.httpRequest = builder.build();
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void writeRequest() throws IOException {
+            if (cancelled) {
+                throw new IOException("Canceled");
+            }
+            CompletableFuture<HttpResponse<InputStream>> response =
+                    client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+            this.response = response;
+            if (publisher == null) {
+                return;
+            }
+
+            try {
+                publisher.write(response, request.readTimeoutMillis());
+            } catch (IOException ex) {
+                // The client gave up on the body because the exchange already failed or
+                // the server answered early; readResponse() reports the outcome.
+                if (!response.isDone()) {
+                    throw ex;
+                }
+            }
+        }
+
+        @Override
+        public Response readResponse() throws IOException {
+            HttpResponse<InputStream> httpResponse;
+            try {
+                httpResponse = response.get();
+            } catch (InterruptedException ex) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + request.url());
+            } catch (ExecutionException ex) {
+                throw translate(ex.getCause());
+            } catch (CancellationException ex) {
+                throw new IOException("Canceled", ex);
+            }
+            InputStream body = httpResponse.body();
+            if (request.readTimeoutMillis() > 0) {
+                body = new TimedInputStream(body, request.readTimeoutMillis());
+            }
+            return new Response(httpResponse.statusCode(), httpResponse.headers().map(), body, null);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            if (publisher != null) {
+                publisher.cancel();
+            }
+            CompletableFuture<HttpResponse<InputStream>> response = this.response;
+            if (response != null && !response.cancel(true) && !response.isCompletedExceptionally()) {
+                // The headers are in; closing the body aborts the stream it is read from.
+                try {
+                    response.join().body().close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Maps the client's failures onto the exceptions {@code HttpURLConnection} throws,
+         * so that a call reports a timeout or an unknown host the same way on either
+         * transport.
+         */
+        private IOException translate(Throwable cause) {
+            if (cause instanceof HttpTimeoutException) {
+                SocketTimeoutException timeout = new SocketTimeoutException(cause.getMessage());
+                timeout.initCause(cause);
+                return timeout;
+            }
+            if (cause instanceof ConnectException && cause.getCause() instanceof UnresolvedAddressException) {
+                UnknownHostException unknownHost = new UnknownHostException(httpRequest.uri().getHost());
+                unknownHost.initCause(cause);
+                return unknownHost;
+            }
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+            return new IOException(cause);
+        }
+    }
+
+    /**
+     * Applies the read timeout to the response body, which the client only applies to the
+     * response headers. A read that gets no data in time closes the stream, which aborts
+     * the exchange, and fails with a {@link SocketTimeoutException}. One timer covers a
+     * whole idle window: when it fires during a read that started later, it is set again
+     * for the rest of that read's time instead.
+     */
+    private static final class TimedInputStream extends FilterInputStream {
+
+        private final long timeoutNanos;
+        private final Runnable check = new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        };
+        private volatile boolean timedOut;
+        private boolean reading;
+        private long readStartNanos;
+        private ScheduledFuture<?> timer;
+
+        TimedInputStream(InputStream in, long timeoutMillis) {
+            super(in);
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+
+        @Override
+        public int read() throws IOException {
+            beginRead();
+            try {
+                return checked(super.read());
+            } catch (IOException ex) {
+                throw timedOut ? timeout(ex) : ex;
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            beginRead();
+            try {
+                return checked(super.read(b, off, len));
+            } catch (IOException ex) {
+                throw timedOut ? timeout(ex) : ex;
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (check) {
+                if (timer != null) {
+                    timer.cancel(false);
+                    timer = null;
+                }
+            }
+            super.close();
+        }
+
+        /**
+         * Fails a read that ended because the timer closed the stream rather than at the
+         * end of the body.
+         */
+        private int checked(int result) throws IOException {
+            if (result == -1 && timedOut) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            return result;
+        }
+
+        private void beginRead() throws IOException {
+            if (timedOut) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            synchronized (check) {
+                reading = true;
+                readStartNanos = System.nanoTime();
+                if (timer == null) {
+                    timer = Watchdog.schedule(check, TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+                }
+            }
+        }
+
+        private void endRead() {
+            synchronized (check) {
+                reading = false;
+            }
+        }
+
+        /**
+         * Runs when the timer fires. Lets it lapse if no read is waiting, sets it again if
+         * the waiting read still has time, and otherwise times the stream out.
+         */
+        private void check() {
+            synchronized (check) {
+                timer = null;
+                if (!reading) {
+                    return;
+                }
+                long remainingNanos = timeoutNanos - (System.nanoTime() - readStartNanos);
+                if (remainingNanos > 0) {
+                    timer = Watchdog.schedule(check, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+                    return;
+                }
+                timedOut = true;
+            }
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static SocketTimeoutException timeout(IOException cause) {
+            SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+            timeout.initCause(cause);
+            return timeout;
+        }
+    }
+
+    /**
+     * Feeds a {@link RequestBody} to the client as the client asks for it. The body is
+     * written on the calling thread, which blocks whenever the client has no outstanding
+     * demand, so a large body is never buffered in heap.
+     */
+    private static final class StreamingPublisher implements HttpRequest.BodyPublisher, Flow.Subscription {
+
+        private static final int CHUNK_SIZE = 16 * 1024;
+
+        private final RequestBody body;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private Flow.Subscriber<? super ByteBuffer> subscriber;
+        private long demand;
+        private boolean cancelled;
+
+        StreamingPublisher(RequestBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public long contentLength() {
+            return body.contentLength();
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            lock.lock();
+            boolean first;
+            try {
+                first = this.subscriber == null;
+                if (first) {
+                    this.subscriber = subscriber;
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (first) {
+                subscriber.onSubscribe(this);
+            } else {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IOException("Request body cannot be sent twice"));
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Writes the body, failing if the client asks for no data for {@code timeoutMillis},
+         * or never if it is 0.
+         */
+        void write(CompletableFuture<?> response, long timeoutMillis) throws IOException {
+            final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            response.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object result, Throwable failure) {
+                    cancel();
+                }
+            });
+
+            OutputStream out = new OutputStream() {
+                private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+                @Override
+                public void write(int b) throws IOException {
+                    if (!chunk.hasRemaining()) {
+                        emit();
+                    }
+                    chunk.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        if (!chunk.hasRemaining()) {
+                            emit();
+                        }
+                        int count = Math.min(len, chunk.remaining());
+                        chunk.put(b, off, count);
+                        off += count;
+                        len -= count;
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (chunk.position() > 0) {
+                        emit();
+                    }
+                }
+
+                private void emit() throws IOException {
+                    chunk.flip();
+                    Flow.Subscriber<? super ByteBuffer> subscriber = awaitDemand(timeoutNanos);
+                    subscriber.onNext(chunk);
+                    chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                }
+            };
+
+            try {
+                body.writeTo(out);
+                out.flush();
+            } catch (IOException | RuntimeException ex) {
+                Flow.Subscriber<? super ByteBuffer> subscriber = subscriber();
+                if (subscriber != null) {
+                    subscriber.onError(ex);
+                }
+                throw ex;
+            }
+            awaitSubscriber(timeoutNanos).onComplete();
+        }
+
+        private Flow.Subscriber<? super ByteBuffer> subscriber() {
+            lock.lock();
+            try {
+                return subscriber;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Flow.Subscriber<? super ByteBuffer> awaitSubscriber(long timeoutNanos) throws IOException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            lock.lock();
+            try {
+                while (subscriber == null) {
+                    await(timeoutNanos, deadline);
+                }
+                return subscriber;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Flow.Subscriber<? super ByteBuffer> awaitDemand(long timeoutNanos) throws IOException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            lock.lock();
+            try {
+                while (subscriber == null || demand == 0) {
+                    await(timeoutNanos, deadline);
+                }
+                demand--;
+                return subscriber;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void await(long timeoutNanos, long deadline) throws IOException {
+            if (cancelled) {
+                throw new IOException("Request body canceled");
+            }
+            try {
+                if (timeoutNanos == 0) {
+                    changed.await();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Timed out writing request body");
+                    }
+                    changed.awaitNanos(remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing request body");
+            }
+            if (cancelled) {
+                throw new IOException("Request body canceled");
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.magnet.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * The default transport: one {@link HttpURLConnection} per call, carrying one request at
+ * a time over HTTP/1.1. Connections whose response was read to the end go back to the
+ * JDK's keep-alive cache and are reused by later calls to the same host.
+ *
+ * <p>Cancelling an exchange whose response body is being read cannot interrupt the read
+ * in progress: the connection is closed once that read returns, with the next bytes from
+ * the server or at the read timeout.
+ */
+
+public final class HttpUrlConnectionTransport implements Transport {
+
+    /**
+     * Runs the disconnects that must wait for a read in progress, so that cancelling
+     * never blocks the caller.
+     */
+    private static final Executor DISCONNECTS = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Magnet Disconnect #" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final ConnectionPool connectionPool;
+
+    public HttpUrlConnectionTransport() {
+        this(new ConnectionPool());
+    }
+
+    public HttpUrlConnectionTransport(ConnectionPool connectionPool) {
+        if (connectionPool == null) {
+            throw new IllegalArgumentException("connectionPool == null");
+        }
+        // HttpsURLConnection creates its default factory lazily and without locking, so
+        // connections opened concurrently from cold could each see a different one, miss
+        // the counting factory and never share idle connections.
+        connectionPool.socketFactory();
+        this.connectionPool = connectionPool;
+    }
+
+    public ConnectionPool connectionPool() {
+        return connectionPool;
+    }
+
+    @Override
+    public Exchange newExchange(Request request) throws IOException {
+        connectionPool.trackRequest(request.url());
+        return new UrlConnectionExchange(request, connectionPool);
+    }
+
+    private static final class UrlConnectionExchange implements Exchange {
+
+        private final Request request;
+        private final HttpURLConnection connection;
+        private volatile boolean responseRead;
+
+        UrlConnectionExchange(Request request, ConnectionPool connectionPool) throws IOException {
+            this.request = request;
+            this.connection = (HttpURLConnection) Util.toUrl(request.url()).openConnection();
+
+            if (connection instanceof HttpsURLConnection) {
+                HttpsURLConnection https = (HttpsURLConnection) connection;
+                if (https.getSSLSocketFactory() == HttpsURLConnection.getDefaultSSLSocketFactory()) {
+                    https.setSSLSocketFactory(connectionPool.socketFactory());
+                }
+            }
+
+            connection.setRequestMethod(request.method());
+            connection.setConnectTimeout(request.connectTimeoutMillis());
+            connection.setReadTimeout(request.readTimeoutMillis());
+            for (Map.Entry<String, String> header : request.headers().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            RequestBody body = request.body();
+            if (body != null) {
+                connection.setDoOutput(true);
+                if (body.contentType() != null && request.header("Content-Type") == null) {
+                    connection.setRequestProperty("Content-Type", body.contentType());
+                }
+                long contentLength = body.contentLength();
+                if (contentLength != -1) {
+                    connection.setFixedLengthStreamingMode(contentLength);
+                } else {
+                    connection.setChunkedStreamingMode(0);
+                }
+            }
+        }
+
+        @Override
+        public void connect() throws IOException {
+            connection.connect();
+        }
+
+        @Override
+        public void writeRequest() throws IOException {
+            RequestBody body = request.body();
+            if (body == null) {
+                return;
+            }
+            OutputStream out = connection.getOutputStream();
+            try {
+                body.writeTo(out);
+            } finally {
+                out.close();
+            }
+        }
+
+        @Override
+        public Response readResponse() throws IOException {
+            int code = connection.getResponseCode();
+            InputStream body = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+            if (body == null) {
+                body = new ByteArrayInputStream(new byte[0]);
+            }
+            responseRead = true;
+            return new Response(code, connection.getHeaderFields(), body, null);
+        }
+
+        @Override
+        public void cancel() {
+            if (!responseRead) {
+                connection.disconnect();
+                return;
+            }
+            // Disconnecting closes the body stream, which waits for a read in progress.
+            DISCONNECTS.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connection.disconnect();
+                }
+            });
+        }
+    }
+}
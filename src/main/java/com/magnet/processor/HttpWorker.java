@@ -1,144 +1,927 @@
 package com.magnet.processor;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 
 /**
  * Created by yadhukrishnan.e@oneteam.us
  */
 
-public class HttpWorker<T> extends Thread {
-
-    private static final int CONNECTION_TIMEOUT = 5000;
-    private static final int READ_TIMEOUT = 5000;
+public class HttpWorker<T> implements Runnable {
 
+    private final Magnet magnet;
     private ServiceMethod serviceMethod;
     private Object[] args;
+    private boolean executed;
+    private String host;
+    private String url;
+    private String flightKey;
+    private volatile String joinedKey;
 
     private RequestBuilder builder;
     private CallBack<T> callback;
-    private Class<T> responseType;
+    private CompletableFuture<T> future;
+    private Type responseType;
+    private TypeAdapter<T> responseAdapter;
 
     private Map<String, String> headers;
     private Map<String, File> parts;
+    private ProgressListener progressListener;
+
+    private final EventListener eventListener;
+    private long callStartNanos;
+    private int responseCode;
+    private boolean transparentDecoding;
 
-    HttpWorker(ServiceMethod serviceMethod, Object[] args) {
+    private boolean permitted;
+    private volatile boolean canceled;
+    private final CountDownLatch canceledLatch = new CountDownLatch(1);
+    private volatile boolean timedOut;
+    private volatile Transport.Exchange exchange;
+    private volatile HedgedCall hedgedCall;
+    private ScheduledFuture<?> deadline;
+    private CacheEntry cachedEntry;
+    private boolean cacheChecked;
+
+    HttpWorker(Magnet magnet, ServiceMethod serviceMethod, Object[] args) {
+        this.magnet = magnet;
         this.serviceMethod = serviceMethod;
         this.args = args;
+        this.eventListener = magnet.eventListener;
+    }
+
+    /**
+     * Reports the bytes of the request body as they are sent or, for a method with a
+     * {@code @Destination}, the bytes of the file as they are written.
+     */
+    public HttpWorker<T> progress(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Runs the call on the dispatcher and decodes the response into the type declared by
+     * the interface method, {@code HttpWorker<T>}.
+     */
+    public void execute(CallBack<T> callBack) {
+        this.callback = callBack;
+        if (prepare(serviceMethod.responseType(), true)) {
+            enqueue();
+        }
     }
 
     public void execute(Class<T> responseType, CallBack<T> callBack) {
         this.callback = callBack;
+        if (prepare(responseType, true)) {
+            enqueue();
+        }
+    }
+
+    /**
+     * Runs the call on the dispatcher and returns a future for its result. An offline
+     * failure completes the future with the underlying {@link SocketTimeoutException} or
+     * {@link UnknownHostException}. Cancelling the future cancels the call.
+     */
+    public CompletableFuture<T> executeAsync() {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        this.future = future;
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T t, Throwable error) {
+                if (error instanceof CancellationException) {
+                    cancel();
+                }
+            }
+        });
+        if (prepare(serviceMethod.responseType(), true)) {
+            enqueue();
+        }
+        return future;
+    }
+
+    /**
+     * Runs the call on the calling thread and returns its result.
+     */
+    public T execute() throws IOException {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        this.future = future;
+        if (prepare(serviceMethod.responseType(), true)) {
+            call();
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Runs the call on the calling thread and returns the elements of the JSON array in
+     * the response as they are decoded. {@code T} is the element type.
+     */
+    ResponseStream<T> stream() throws IOException {
+        prepare(serviceMethod.responseType(), false);
+        TypeAdapter<T> adapter = serviceMethod.responseAdapter(responseType);
+
+        Response response = null;
+        try {
+            if (canceled) {
+                throw new IOException("Canceled");
+            }
+            route();
+            awaitPermit();
+            depositRetryBudget();
+            deadline = startDeadline();
+            response = send(Collections.<String, String>emptyMap());
+            if (response.code() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new IOException("Server returned HTTP response code: " + response.code() + " for URL: " + url);
+            }
+            responseCode = response.code();
+            JsonReader reader = new JsonReader(new InputStreamReader(responseBody(response),
+                    Util.charset(response.contentType())));
+            reader.setLenient(true);
+            return new JsonArrayStream<>(this, response, reader, adapter);
+        } catch (IOException | RuntimeException ex) {
+            if (response != null) {
+                try {
+                    release(response);
+                } catch (IOException ignored) {
+                }
+            }
+            stopDeadline();
+            eventListener.callFailed(serviceMethod, elapsedNanos(), ex);
+            rethrowIfAborted(ex);
+            throw ex;
+        }
+    }
+
+    void streamFinished(Exception failure) {
+        stopDeadline();
+        eventListener.responseBodyEnd(serviceMethod, elapsedNanos());
+        eventListener.deserializationEnd(serviceMethod, elapsedNanos());
+        if (failure == null) {
+            eventListener.callEnd(serviceMethod, elapsedNanos());
+        } else {
+            eventListener.callFailed(serviceMethod, elapsedNanos(), failure);
+        }
+    }
+
+    /**
+     * Builds the request. Returns false if the call joined an identical one already in
+     * flight and must not be run itself.
+     */
+    private boolean prepare(Type responseType, boolean coalesce) {
+        if (responseType == null) {
+            throw new IllegalStateException("Response type is not declared; use execute(Class, CallBack)");
+        }
+        if (serviceMethod.isDownload() && responseType != File.class && responseType != java.nio.file.Path.class) {
+            throw new IllegalStateException("Downloads complete with a File or Path, not " + responseType);
+        }
+        synchronized (this) {
+            if (executed) {
+                throw new IllegalStateException("Already executed");
+            }
+            executed = true;
+        }
+        callStartNanos = System.nanoTime();
+        eventListener.callStart(serviceMethod);
+
         this.builder = serviceMethod.toRequestBuilder(args);
         this.headers = builder.headers;
         this.responseType = responseType;
+        if (responseType != String.class && !serviceMethod.isDownload()) {
+            this.responseAdapter = serviceMethod.responseAdapter(responseType);
+        }
         this.parts = builder.multiParts;
-        parts = builder.multiParts;
-        start();
+        this.url = builder.url();
+        this.host = parseHost(url);
+        eventListener.requestBuildEnd(serviceMethod, elapsedNanos());
+
+        if (coalesce && magnet.inFlightCalls != null && "GET".equals(builder.httpMethod)
+                && !serviceMethod.isDownload()) {
+            String key = InFlightCalls.key(builder.httpMethod, url, headers, responseType);
+            joinedKey = key;
+            if (magnet.inFlightCalls.join(key, this)) {
+                if (canceled) {
+                    leaveFlight();
+                }
+                return false;
+            }
+            joinedKey = null;
+            this.flightKey = key;
+        }
+        return true;
+    }
+
+    String host() {
+        return host;
+    }
+
+    void rejected(Exception ex) {
+        deliverFailure(ex);
+    }
+
+    /**
+     * Hands the call to the dispatcher, which holds it back until its rate limits let it
+     * through.
+     */
+    private void enqueue() {
+        magnet.dispatcher.enqueue(this);
     }
 
+    /**
+     * Takes a permit for the call from its rate limits, unless it has one or is answered
+     * from the cache, and returns how long the call must wait for it, or -1 if the limits
+     * refused it and the call failed.
+     */
+    private long reservePermit() {
+        if (permitted || canceled || hasFreshCacheEntry()) {
+            return 0;
+        }
+        long waitNanos;
+        try {
+            waitNanos = RateLimiter.reserve(magnet.rateLimiter, host, serviceMethod);
+        } catch (RateLimitedException ex) {
+            deliverFailure(ex);
+            return -1;
+        }
+        permitted = true;
+        return waitNanos;
+    }
+
+    /**
+     * Sends lookups of the call's host to the {@link Dns} of its {@code Magnet}.
+     */
+    private void route() {
+        if (magnet.dnsRoutes != null) {
+            magnet.dnsRoutes.route(host);
+        }
+    }
+
+    /**
+     * Blocks the calling thread until the call's rate limits let it through, unless the
+     * dispatcher already held it back.
+     */
+    private void awaitPermit() throws IOException {
+        if (permitted) {
+            return;
+        }
+        permitted = true;
+        long waitNanos = RateLimiter.reserve(magnet.rateLimiter, host, serviceMethod);
+        if (waitNanos > 0) {
+            sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Waits for {@code nanos}, failing early if the call is cancelled.
+     */
+    private void sleep(long nanos) throws IOException {
+        try {
+            if (canceledLatch.await(nanos, TimeUnit.NANOSECONDS)) {
+                throw new IOException("Canceled: " + url);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send " + url);
+        }
+    }
+
+    /**
+     * Cancels the call. A call that has not been sent yet fails without going to the
+     * network; one in flight has its connection aborted at once, whether it is waiting for
+     * the server or reading the response. The call then fails with an {@link IOException},
+     * or completes with whatever result it already had. A streamed call is cancelled by
+     * closing its {@link ResponseStream}.
+     *
+     * <p>A call waiting on an identical call in flight fails alone; one that other calls
+     * are waiting on hands the request over to one of them.
+     */
+    public void cancel() {
+        canceled = true;
+        canceledLatch.countDown();
+        Transport.Exchange exchange = this.exchange;
+        if (exchange != null) {
+            exchange.cancel();
+        }
+        HedgedCall hedgedCall = this.hedgedCall;
+        if (hedgedCall != null) {
+            hedgedCall.cancel();
+        }
+        leaveFlight();
+    }
+
+    /**
+     * Fails the call if it is waiting on an identical call in flight, leaving that call
+     * and the others waiting on it alone.
+     */
+    private void leaveFlight() {
+        String key = joinedKey;
+        if (key != null && magnet.inFlightCalls.leave(key, this)) {
+            joinedKey = null;
+            deliverFailure(new IOException("Canceled: " + url));
+        }
+    }
+
+    /**
+     * Sends the call in place of the leader of the flight for {@code key}, which was
+     * cancelled or timed out before it had a result.
+     */
+    private void lead(String key) {
+        joinedKey = null;
+        flightKey = key;
+        enqueue();
+    }
 
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Called by the {@link Watchdog} when the call is past its deadline.
+     */
+    void timeOut() {
+        timedOut = true;
+        cancel();
+    }
+
+    private ScheduledFuture<?> startDeadline() {
+        long callTimeoutMillis = serviceMethod.callTimeoutMillis();
+        return callTimeoutMillis > 0 ? Watchdog.schedule(this, callTimeoutMillis) : null;
+    }
+
+    private void stopDeadline() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+    }
+
+    /**
+     * Replaces the exception a call failed with, once the call was cancelled or timed
+     * out, by one that says so; the original reports only the aborted connection.
+     */
+    private void rethrowIfAborted(Exception ex) throws IOException {
+        if (timedOut) {
+            SocketTimeoutException timeout = new SocketTimeoutException(
+                    "Call timed out after " + serviceMethod.callTimeoutMillis() + " ms: " + url);
+            timeout.initCause(ex);
+            throw timeout;
+        }
+        if (canceled) {
+            throw new IOException("Canceled: " + url, ex);
+        }
+    }
+
+    /**
+     * Runs the call on the dispatcher. A call its rate limits hold back gives up its place
+     * and is enqueued again once its permit is due.
+     */
     @Override
     public void run() {
+        long waitNanos = -1;
         try {
-            URL url = new URL(url());
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            waitNanos = reservePermit();
+            if (waitNanos == 0) {
+                call();
+            }
+        } finally {
+            magnet.dispatcher.finished(this);
+        }
+        if (waitNanos > 0) {
+            magnet.dispatcher.enqueue(this, waitNanos);
+        }
+    }
 
-            if (builder.hasHeader) {
-                for (Map.Entry<String, String> entry : headers.entrySet()) {
-                    connection.setRequestProperty(entry.getKey(), entry.getValue());
-                }
+    private void call() {
+        T t;
+        try {
+            t = fetchBeforeDeadline();
+        } catch (SocketTimeoutException | UnknownHostException ex) {
+            deliverOffline(ex);
+            return;
+        } catch (Exception ex) {
+            deliverFailure(ex);
+            return;
+        }
+        deliverSuccess(responseCode, t);
+    }
+
+    private T fetchBeforeDeadline() throws IOException {
+        if (canceled) {
+            throw new IOException("Canceled: " + url);
+        }
+        if (hasFreshCacheEntry()) {
+            magnet.cache.trackHit();
+            responseCode = HttpURLConnection.HTTP_OK;
+            return decodeCached(cachedEntry());
+        }
+        route();
+        awaitPermit();
+        depositRetryBudget();
+        deadline = startDeadline();
+        try {
+            return fetch();
+        } catch (IOException | RuntimeException ex) {
+            rethrowIfAborted(ex);
+            throw ex;
+        } finally {
+            stopDeadline();
+        }
+    }
+
+    private T fetch() throws IOException {
+        if (serviceMethod.isDownload()) {
+            return download();
+        }
+
+        Cache cache = cache();
+        CacheEntry cached = cachedEntry();
+        if (cached != null && !cached.hasValidators()) {
+            cached = null;
+        }
+
+        Map<String, String> conditionalHeaders = new LinkedHashMap<>();
+        if (cached != null) {
+            if (cached.etag != null) {
+                conditionalHeaders.put("If-None-Match", cached.etag);
             }
+            if (cached.lastModified != null) {
+                conditionalHeaders.put("If-Modified-Since", cached.lastModified);
+            }
+            cache.trackRevalidation();
+        }
+
+        Response response = send(conditionalHeaders);
+        int responseCode = response.code();
+        long receivedAt = System.currentTimeMillis();
 
-            connection.setDoOutput(true);
-            connection.setRequestMethod(builder.httpMethod);
-            connection.setConnectTimeout(CONNECTION_TIMEOUT);
-            connection.setReadTimeout(READ_TIMEOUT);
+        if (cached != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            release(response);
+            cache.trackRevalidatedHit();
+            cached = cached.withRevalidation(response, receivedAt, serviceMethod.cacheMaxAge());
+            cache.put(cached);
+            this.responseCode = HttpURLConnection.HTTP_OK;
+            return decodeCached(cached);
+        }
+
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            release(response);
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
 
-            if (builder.hasPart) {
-                DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
-                for (Map.Entry<String, File> part : parts.entrySet()) {
-                    parseFiles(writer, part.getKey(), part.getValue());
+        String contentType = response.contentType();
+        CacheEntry entry = null;
+        if (cache != null) {
+            cache.trackMiss();
+            if (responseCode == HttpURLConnection.HTTP_OK && CacheEntry.isStorable(response)) {
+                entry = new CacheEntry(url, contentType, CacheEntry.storedHeaders(response),
+                        CacheEntry.expiresAt(response, receivedAt, serviceMethod.cacheMaxAge()),
+                        CacheEntry.varyHeaders(response,
+                                builder.hasHeader ? headers : Collections.<String, String>emptyMap()),
+                        null);
+                if (!entry.isFresh(receivedAt) && !entry.hasValidators()) {
+                    entry = null;
                 }
-                writer.flush();
-                writer.close();
             }
+        }
+
+        T t;
+        InputStream in = null;
+        try {
+            in = responseBody(response);
+            CachingInputStream caching = null;
+            if (entry != null) {
+                in = caching = new CachingInputStream(in, cache.maxEntrySize());
+            }
+            t = decode(in, Util.charset(contentType));
+            byte[] cachedBody = caching != null ? caching.drainAndGet() : null;
+            if (cachedBody != null) {
+                cache.put(entry.withBody(cachedBody));
+            }
+        } finally {
+            release(response);
+            if (in != null) {
+                in.close();
+            }
+        }
+        eventListener.responseBodyEnd(serviceMethod, elapsedNanos());
+        eventListener.deserializationEnd(serviceMethod, elapsedNanos());
 
-            connection.connect();
+        this.responseCode = responseCode;
+        return t;
+    }
 
-            if (builder.hasBody) {
-                DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
-                wr.writeBytes(builder.body);
-                wr.flush();
-                wr.close();
+    private Cache cache() {
+        return serviceMethod.isCacheable() && !serviceMethod.isDownload() ? magnet.cache : null;
+    }
+
+    /**
+     * Returns the cached response to the call, or null if there is none. The cache is
+     * looked up once per call.
+     */
+    private CacheEntry cachedEntry() {
+        if (!cacheChecked) {
+            cacheChecked = true;
+            Cache cache = cache();
+            if (cache != null) {
+                cachedEntry = cache.get(url, builder.hasHeader ? headers : Collections.<String, String>emptyMap());
             }
+        }
+        return cachedEntry;
+    }
+
+    /**
+     * Returns whether the call is answered from the cache without going to the network, in
+     * which case it takes no permit from the rate limits and earns no retries.
+     */
+    private boolean hasFreshCacheEntry() {
+        CacheEntry cached = cachedEntry();
+        return cached != null && !serviceMethod.cacheNoCache() && cached.isFresh(System.currentTimeMillis());
+    }
 
-            int responseCode = connection.getResponseCode();
+    /**
+     * Downloads the response body to the {@code @Destination} file, resuming a download
+     * that an earlier call left unfinished.
+     */
+    private T download() throws IOException {
+        FileDownload download = new FileDownload(builder.destination);
+        Response response = send(download.requestHeaders());
+        if (response.code() == 416 && download.isResuming()) {
+            // The part file no longer lines up with the resource; start over.
+            release(response);
+            download.discard();
+            response = send(download.requestHeaders());
+        }
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            StringBuilder responseBuilder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBuilder.append(line);
+        int responseCode = response.code();
+        try {
+            // Any other status, such as a 204 or a redirect that was not followed, carries
+            // no file and must not replace the target.
+            if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
             }
-            connection.disconnect();
-            reader.close();
+            download.writeFrom(response, progressListener);
+        } finally {
+            release(response);
+        }
+        download.complete();
+        eventListener.responseBodyEnd(serviceMethod, elapsedNanos());
 
-            if (builder != null) {
-                Gson gson = new GsonBuilder().create();
-                if (responseType == String.class) {
-                    T t = (T) responseBuilder.toString();
-                    HttpWorker.this.
-                            callback.successResponse(responseCode, t);
-                } else {
-                    T t = gson.fromJson(responseBuilder.toString(), responseType);
-                    callback.successResponse(responseCode, t);
+        this.responseCode = responseCode;
+        Object file = responseType == File.class ? builder.destination.toFile() : builder.destination;
+        return (T) file;
+    }
+
+    /**
+     * Sends the request with {@code extraHeaders} added to those of the call, and returns
+     * the response once its headers have arrived, retrying transient failures if the method
+     * has a {@link RetryPolicy}. A response with a status code that is still failing after
+     * the last attempt is returned as it is.
+     */
+    private Response send(Map<String, String> extraHeaders) throws IOException {
+        RetryPolicy retryPolicy = retryPolicy();
+        if (retryPolicy == null) {
+            return sendOnce(extraHeaders);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            boolean lastAttempt = attempt >= retryPolicy.maxAttempts();
+            Response response;
+            try {
+                response = sendOnce(extraHeaders);
+            } catch (IOException ex) {
+                if (lastAttempt || canceled || !retryPolicy.isRetryable(ex)) {
+                    throw ex;
+                }
+                long delayNanos = retryDelayNanos(retryPolicy, retryPolicy.backoffNanos(attempt, 0));
+                if (delayNanos < 0) {
+                    throw ex;
                 }
+                sleep(delayNanos);
+                continue;
+            }
 
+            if (lastAttempt || !retryPolicy.isRetryable(response.code())) {
+                return response;
             }
-        } catch (SocketTimeoutException | UnknownHostException ex) {
-            ex.printStackTrace();
-            callback.offline();
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            long delayNanos = retryDelayNanos(retryPolicy,
+                    retryPolicy.backoffNanos(attempt, RateLimiter.retryAfterNanos(response)));
+            if (delayNanos < 0) {
+                return response;
+            }
+            release(response);
+            sleep(delayNanos);
+        }
+    }
+
+    /**
+     * Returns the method's retry policy, or null if its calls are not retried.
+     */
+    private RetryPolicy retryPolicy() {
+        RetryPolicy retryPolicy = serviceMethod.retryPolicy();
+        return retryPolicy != null && serviceMethod.isIdempotent() ? retryPolicy : null;
+    }
+
+    /**
+     * Credits the retry budget once per call, however many requests the call sends.
+     */
+    private void depositRetryBudget() {
+        RetryPolicy retryPolicy = retryPolicy();
+        if (retryPolicy != null) {
+            retryPolicy.deposit();
+        }
+    }
+
+    /**
+     * Takes a retry from the budget and a permit for it from the call's rate limits, so
+     * that retries are paced like other calls, and returns how long the retry must wait, or
+     * -1 if it must not be sent. A retry the rate limits will not let through in time is
+     * refunded to the budget.
+     */
+    private long retryDelayNanos(RetryPolicy retryPolicy, long backoffNanos) {
+        if (backoffNanos < 0 || !retryPolicy.tryRetry()) {
+            return -1;
+        }
+        long permitNanos;
+        try {
+            permitNanos = RateLimiter.reserve(magnet.rateLimiter, host, serviceMethod);
+        } catch (RateLimitedException ex) {
+            retryPolicy.refund();
+            return -1;
+        }
+        return Math.max(backoffNanos, permitNanos);
+    }
+
+    /**
+     * Sends one attempt of the call. Fails fast if the call's circuit is open.
+     */
+    private Response sendOnce(Map<String, String> extraHeaders) throws IOException {
+        Response response = sendThroughCircuit(extraHeaders);
+        int code = response.code();
+        if (code == 429 || code == HttpURLConnection.HTTP_UNAVAILABLE) {
+            RateLimiter.retryAfter(magnet.rateLimiter, host, serviceMethod, response);
+        }
+        return response;
+    }
+
+    private Response sendThroughCircuit(Map<String, String> extraHeaders) throws IOException {
+        CircuitBreaker.Circuit circuit = magnet.circuitBreaker != null
+                ? magnet.circuitBreaker.circuit(host, serviceMethod)
+                : null;
+        if (circuit == null) {
+            return exchange(extraHeaders);
+        }
+
+        long permit = circuit.acquire();
+        long sendStartNanos = System.nanoTime();
+        boolean recorded = false;
+        try {
+            Response response = exchange(extraHeaders);
+            circuit.record(permit, response.code() >= HttpURLConnection.HTTP_INTERNAL_ERROR,
+                    System.nanoTime() - sendStartNanos);
+            recorded = true;
+            return response;
+        } catch (IOException ex) {
+            circuit.record(permit, true, System.nanoTime() - sendStartNanos);
+            recorded = true;
+            throw ex;
+        } finally {
+            if (!recorded) {
+                circuit.release(permit);
+            }
+        }
+    }
+
+    private Response exchange(Map<String, String> extraHeaders) throws IOException {
+        Map<String, String> requestHeaders = new LinkedHashMap<>();
+        if (builder.hasHeader) {
+            requestHeaders.putAll(headers);
+        }
+        requestHeaders.putAll(extraHeaders);
+        transparentDecoding = !containsHeader(requestHeaders, "Accept-Encoding");
+        if (transparentDecoding) {
+            requestHeaders.put("Accept-Encoding", "gzip, deflate");
+        }
+
+        RequestBody body = null;
+        if (builder.hasPart) {
+            body = new MultipartBody(parts);
+        } else if (builder.hasBody && builder.body() != null) {
+            body = builder.body();
+            int gzipMinSize = serviceMethod.gzipMinSize();
+            long contentLength = body.contentLength();
+            if (gzipMinSize != -1 && (contentLength == -1 || contentLength >= gzipMinSize)) {
+                body = new GzipRequestBody(body);
+                requestHeaders.put("Content-Encoding", "gzip");
+            }
+        }
+        if (body != null && progressListener != null) {
+            body = new ProgressRequestBody(body, progressListener);
+        }
+
+        Request request = new Request(url, builder.httpMethod, requestHeaders, body,
+                serviceMethod.connectTimeoutMillis(), serviceMethod.readTimeoutMillis());
+        Hedging hedging = magnet.hedging;
+        if (hedging != null && progressListener == null && hedging.isEligible(serviceMethod)) {
+            return hedgedExchange(hedging, request);
+        }
+        Transport.Exchange exchange = magnet.transport.newExchange(request);
+        this.exchange = exchange;
+
+        Response response;
+        try {
+            if (canceled) {
+                throw new IOException("Canceled: " + url);
+            }
+            eventListener.connectStart(serviceMethod, elapsedNanos());
+            exchange.connect();
+            eventListener.connectEnd(serviceMethod, elapsedNanos());
+
+            exchange.writeRequest();
+            eventListener.requestBodyEnd(serviceMethod, elapsedNanos());
+
+            response = exchange.readResponse();
+        } catch (IOException | RuntimeException ex) {
+            exchange.cancel();
+            throw ex;
+        }
+        eventListener.responseStart(serviceMethod, elapsedNanos());
+        return response;
+
+    }
+
+    /**
+     * Sends {@code request} through a {@link HedgedCall}. The requests race on more than
+     * one thread, so their steps are reported together once the winner has its headers.
+     */
+    private Response hedgedExchange(Hedging hedging, Request request) throws IOException {
+        long startNanos = System.nanoTime();
+        eventListener.connectStart(serviceMethod, elapsedNanos());
+        HedgedCall hedgedCall = new HedgedCall(magnet.transport, request, hedging);
+        this.hedgedCall = hedgedCall;
+        if (canceled) {
+            hedgedCall.cancel();
+        }
+        Response response = hedgedCall.execute(magnet.dispatcher, host, hedging.delayNanos(serviceMethod));
+        hedging.record(serviceMethod, System.nanoTime() - startNanos);
+
+        long headersNanos = elapsedNanos();
+        eventListener.connectEnd(serviceMethod, headersNanos);
+        eventListener.requestBodyEnd(serviceMethod, headersNanos);
+        eventListener.responseStart(serviceMethod, headersNanos);
+        return response;
+    }
+
+    /**
+     * Closes {@code response} once its body is consumed or not needed. The call forgets
+     * its exchange first, so that a late {@link #cancel()} does not abort a connection the
+     * transport may have pooled by then.
+     */
+    void release(Response response) throws IOException {
+        exchange = null;
+        hedgedCall = null;
+        response.close();
+    }
+
+    private InputStream responseBody(Response response) throws IOException {
+        InputStream in = response.body();
+        if (transparentDecoding) {
+            in = Util.decompress(in, response.header("Content-Encoding"));
+        }
+        return in;
+    }
+
+    private T decodeCached(CacheEntry cached) throws IOException {
+        T t = decode(new ByteArrayInputStream(cached.body), Util.charset(cached.contentType));
+        eventListener.deserializationEnd(serviceMethod, elapsedNanos());
+        return t;
+    }
+
+    private long elapsedNanos() {
+        return System.nanoTime() - callStartNanos;
+    }
+
+    /**
+     * Ends the call's flight and returns the calls that waited on it. A call that was
+     * {@code aborted} hands the flight to one of them instead and returns none, so that
+     * they do not fail with it.
+     */
+    private List<HttpWorker<T>> followers(boolean aborted) {
+        String key = flightKey;
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        flightKey = null;
+        if (aborted) {
+            HttpWorker<T> next = magnet.inFlightCalls.promote(key);
+            if (next != null) {
+                next.lead(key);
+            }
+            return Collections.emptyList();
+        }
+        return magnet.inFlightCalls.complete(key);
+    }
+
+    private void deliverSuccess(int responseCode, T t) {
+        eventListener.callEnd(serviceMethod, elapsedNanos());
+        List<HttpWorker<T>> followers = followers(false);
+        if (future != null) {
+            future.complete(t);
+        } else {
+            callback.successResponse(responseCode, t);
+        }
+        for (HttpWorker<T> follower : followers) {
+            follower.deliverSuccess(responseCode, t);
+        }
+    }
+
+    private void deliverFailure(Exception ex) {
+        eventListener.callFailed(serviceMethod, elapsedNanos(), ex);
+        List<HttpWorker<T>> followers = followers(canceled);
+        if (future != null) {
+            future.completeExceptionally(ex);
+        } else {
             callback.failureResponse(ex);
         }
+        for (HttpWorker<T> follower : followers) {
+            follower.deliverFailure(ex);
+        }
     }
 
-    private String url() {
-        if (this.builder.relativeUrl.startsWith("http")) {
-            return builder.relativeUrl;
+    private void deliverOffline(Exception ex) {
+        eventListener.callFailed(serviceMethod, elapsedNanos(), ex);
+        List<HttpWorker<T>> followers = followers(canceled);
+        if (future != null) {
+            future.completeExceptionally(ex);
         } else {
-            return builder.baseUrl + builder.relativeUrl;
+            callback.offline();
+        }
+        for (HttpWorker<T> follower : followers) {
+            follower.deliverOffline(ex);
         }
     }
 
-    private void parseFiles(DataOutputStream writer, String fieldName, File file) throws Exception {
-        final String LINE_FEED = "\r\n";
-        writer.writeBytes("Content-Disposition: form-data; name=\"" + fieldName + "\";filename=\"" + file.getName() + "\"" + LINE_FEED);
-        writer.writeBytes(LINE_FEED);
+    private T decode(InputStream in, Charset charset) throws IOException {
+        if (responseType == String.class) {
+            return (T) Util.readString(in, charset);
+        }
+        return Util.readJson(responseAdapter, new JsonReader(new InputStreamReader(in, charset)));
+    }
 
-        FileInputStream fStream = new FileInputStream(file);
-        int bufferSize = 1024;
-        byte[] buffer = new byte[bufferSize];
-        int length = -1;
+    private static boolean containsHeader(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        while ((length = fStream.read(buffer)) != -1) {
-            writer.write(buffer, 0, length);
+    private static String parseHost(String url) {
+        try {
+            return Util.toUrl(url).getHost();
+        } catch (MalformedURLException ex) {
+            return "";
         }
-        writer.writeBytes(LINE_FEED);
-        fStream.close();
     }
 }
@@ -0,0 +1,81 @@
+package com.magnet.processor;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks GET calls currently on the network so that identical calls made while one is in
+ * flight can wait for its result instead of opening their own connection.
+ */
+
+final class InFlightCalls {
+
+    private final Map<String, List<HttpWorker<?>>> flights = new HashMap<>();
+
+    static String key(String httpMethod, String url, Map<String, String> headers, Type responseType) {
+        StringBuilder builder = new StringBuilder(httpMethod.length() + url.length() + 64);
+        builder.append(httpMethod).append(' ').append(url).append('\n');
+        for (Map.Entry<String, String> header : new TreeMap<>(headers).entrySet()) {
+            builder.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+        }
+        builder.append(responseType.getTypeName());
+        return builder.toString();
+    }
+
+    /**
+     * Returns true if {@code call} was attached to a call already in flight for
+     * {@code key}. Returns false if the caller is now the in-flight call for that key and
+     * must go to the network.
+     */
+    synchronized boolean join(String key, HttpWorker<?> call) {
+        List<HttpWorker<?>> followers = flights.get(key);
+        if (followers == null) {
+            flights.put(key, new ArrayList<HttpWorker<?>>());
+            return false;
+        }
+        followers.add(call);
+        return true;
+    }
+
+    /**
+     * Detaches {@code call} from the flight for {@code key}. Returns false if it was not
+     * waiting on that flight, because the flight already ended or the call leads it.
+     */
+    synchronized boolean leave(String key, HttpWorker<?> call) {
+        List<HttpWorker<?>> followers = flights.get(key);
+        return followers != null && followers.remove(call);
+    }
+
+    /**
+     * Hands the flight for {@code key} to the first call that joined it, which must go to
+     * the network in place of the leader; the other calls keep waiting, now on it. Ends
+     * the flight and returns null if no call joined it.
+     */
+    synchronized <T> HttpWorker<T> promote(String key) {
+        List<HttpWorker<?>> followers = flights.get(key);
+        if (followers == null) {
+            return null;
+        }
+        if (followers.isEmpty()) {
+            flights.remove(key);
+            return null;
+        }
+        return (HttpWorker<T>) followers.remove(0);
+    }
+
+    /**
+     * Ends the flight for {@code key} and returns the calls that joined it.
+     */
+    synchronized <T> List<HttpWorker<T>> complete(String key) {
+        List<HttpWorker<?>> followers = flights.remove(key);
+        if (followers == null) {
+            return Collections.emptyList();
+        }
+        return (List<HttpWorker<T>>) (List<?>) followers;
+    }
+}
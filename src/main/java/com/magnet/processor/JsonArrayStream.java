@@ -0,0 +1,105 @@
+package com.magnet.processor;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link ResponseStream} over the top-level JSON array of a response. An empty body or a
+ * JSON {@code null} is read as an empty array.
+ */
+
+final class JsonArrayStream<T> implements ResponseStream<T> {
+
+    private final HttpWorker<?> call;
+    private final Response response;
+    private final JsonReader reader;
+    private final TypeAdapter<T> adapter;
+    private boolean done;
+
+    JsonArrayStream(HttpWorker<?> call, Response response, JsonReader reader, TypeAdapter<T> adapter)
+            throws IOException {
+        this.call = call;
+        this.response = response;
+        this.reader = reader;
+        this.adapter = adapter;
+
+        JsonToken token;
+        try {
+            token = reader.peek();
+        } catch (EOFException ex) {
+            finish(null);
+            return;
+        }
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            finish(null);
+            return;
+        }
+        if (token != JsonToken.BEGIN_ARRAY) {
+            throw new IOException("Expected a JSON array but was " + token);
+        }
+        reader.beginArray();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done) {
+            return false;
+        }
+        try {
+            if (reader.hasNext()) {
+                return true;
+            }
+            reader.endArray();
+            finish(null);
+            return false;
+        } catch (IOException ex) {
+            finish(ex);
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            finish(ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return adapter.read(reader);
+        } catch (IOException ex) {
+            finish(ex);
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            finish(ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!done) {
+            finish(null);
+        }
+    }
+
+    private void finish(Exception failure) {
+        if (done) {
+            return;
+        }
+        done = true;
+        try {
+            call.release(response);
+        } catch (IOException ignored) {
+        }
+        call.streamFinished(failure);
+    }
+}
@@ -0,0 +1,111 @@
+package com.magnet.processor;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link com.magnet.annotations.Body} value serialized as UTF-8 JSON straight into the
+ * connection. A body that serializes to at most {@link #MAX_BUFFERED_BYTES} is measured
+ * by serializing it once into a small buffer, so it can be sent with a Content-Length;
+ * a larger one is streamed chunked and never exists in heap as a whole.
+ */
+
+final class JsonRequestBody<T> extends RequestBody {
+
+    static final int MAX_BUFFERED_BYTES = 8 * 1024;
+
+    private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private final TypeAdapter<T> adapter;
+    private final T value;
+    private boolean measured;
+    private byte[] buffered;
+
+    JsonRequestBody(TypeAdapter<T> adapter, T value) {
+        this.adapter = adapter;
+        this.value = value;
+    }
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public long contentLength() {
+        measure();
+        return buffered != null ? buffered.length : -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        measure();
+        if (buffered != null) {
+            out.write(buffered);
+            return;
+        }
+        write(out);
+    }
+
+    private void measure() {
+        if (measured) {
+            return;
+        }
+        measured = true;
+        BoundedOutputStream out = new BoundedOutputStream();
+        try {
+            write(out);
+            buffered = out.toByteArray();
+        } catch (BoundedOutputStream.LimitExceededException | IOException ex) {
+            buffered = null;
+        }
+    }
+
+    private void write(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        adapter.write(jsonWriter, value);
+        jsonWriter.flush();
+    }
+
+    private static final class BoundedOutputStream extends ByteArrayOutputStream {
+
+        BoundedOutputStream() {
+            super(256);
+        }
+
+        @Override
+        public void write(int b) {
+            ensureRoom(1);
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureRoom(len);
+            super.write(b, off, len);
+        }
+
+        private void ensureRoom(int len) {
+            if (count + len > MAX_BUFFERED_BYTES) {
+                throw new LimitExceededException();
+            }
+        }
+
+        static final class LimitExceededException extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+
+            LimitExceededException() {
+                super(null, null, false, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.magnet.processor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An {@link EventListener} that keeps a {@link LatencyHistogram} of total call time for
+ * every {@link ServiceMethod}, so slow endpoints can be found from p50/p99/p999.
+ * Failed calls are recorded in a separate histogram per method.
+ */
+
+public final class LatencyRecorder extends EventListener {
+
+    private final ConcurrentMap<ServiceMethod, LatencyHistogram> calls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ServiceMethod, LatencyHistogram> failures = new ConcurrentHashMap<>();
+
+    @Override
+    public void callEnd(ServiceMethod method, long elapsedNanos) {
+        histogram(calls, method).record(elapsedNanos);
+    }
+
+    @Override
+    public void callFailed(ServiceMethod method, long elapsedNanos, Exception ex) {
+        histogram(failures, method).record(elapsedNanos);
+    }
+
+    public LatencyHistogram histogram(ServiceMethod method) {
+        return histogram(calls, method);
+    }
+
+    public LatencyHistogram failureHistogram(ServiceMethod method) {
+        return histogram(failures, method);
+    }
+
+    public Map<ServiceMethod, LatencyHistogram> histograms() {
+        return Collections.unmodifiableMap(calls);
+    }
+
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<ServiceMethod, LatencyHistogram> entry : calls.entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<ServiceMethod, LatencyHistogram> map, ServiceMethod method) {
+        LatencyHistogram histogram = map.get(method);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = map.putIfAbsent(method, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+}
@@ -1,10 +1,16 @@
 package com.magnet.processor;
 
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by yadhukrishnan.e@oneteam.us
@@ -15,22 +21,100 @@ public class Magnet {
     private final Map<Method, ServiceMethod> serviceMethodCache = new ConcurrentHashMap<>();
 
     final String baseUrl;
+    final Dispatcher dispatcher;
+    final Gson gson;
+    final Cache cache;
+    final InFlightCalls inFlightCalls;
+    final EventListener eventListener;
+    final Transport transport;
+    final Dns dns;
+    final MagnetResolverProvider.Routes dnsRoutes;
+    final CircuitBreaker circuitBreaker;
+    final Hedging hedging;
+    final int connectTimeoutMillis;
+    final int readTimeoutMillis;
+    final long callTimeoutMillis;
+    final RateLimiter rateLimiter;
+    final RetryPolicy retryPolicy;
 
     Magnet(Builder builder) {
         baseUrl = builder.baseUrl;
+        dispatcher = builder.dispatcher != null
+                ? builder.dispatcher
+                : new Dispatcher(builder.executionMode.newExecutorService());
+        gson = builder.gson != null ? builder.gson : new Gson();
+        cache = builder.cache;
+        inFlightCalls = builder.coalesceRequests ? new InFlightCalls() : null;
+        eventListener = builder.eventListener != null ? builder.eventListener : EventListener.NONE;
+        transport = builder.transport != null ? builder.transport : new HttpUrlConnectionTransport();
+        dns = builder.dns;
+        dnsRoutes = dns != null ? MagnetResolverProvider.register(this, dns) : null;
+        circuitBreaker = builder.circuitBreaker;
+        hedging = builder.hedging;
+        connectTimeoutMillis = builder.connectTimeoutMillis;
+        readTimeoutMillis = builder.readTimeoutMillis;
+        callTimeoutMillis = builder.callTimeoutMillis;
+        rateLimiter = builder.rateLimiter;
+        retryPolicy = builder.retryPolicy;
     }
 
+    /**
+     * Returns an implementation of {@code ourInterface}. When {@code magnet-compiler} ran over
+     * the interface its generated {@code <Interface>_MagnetImpl} is used; otherwise calls go
+     * through a {@link Proxy} that reads the annotations by reflection.
+     */
     public <T> T create(Class<T> ourInterface) {
+        T generated = createGenerated(ourInterface);
+        if (generated != null) {
+            return generated;
+        }
+        return createProxy(ourInterface);
+    }
+
+    /**
+     * Runs {@code args} through {@code serviceMethod} and adapts the call to the method's
+     * return type. Called by generated implementations.
+     */
+    public Object invoke(ServiceMethod serviceMethod, Object[] args) throws Exception {
+        HttpWorker<Object> call = new HttpWorker<>(this, serviceMethod, args);
+        return serviceMethod.adapt(call);
+    }
+
+    <T> T createGenerated(Class<T> ourInterface) {
+        String name = ourInterface.getName();
+        String packagePrefix = ourInterface.getPackageName().isEmpty() ? "" : ourInterface.getPackageName() + ".";
+        String implName = packagePrefix + name.substring(packagePrefix.length()).replace('$', '_') + "_MagnetImpl";
+        Class<?> implClass;
+        try {
+            implClass = Class.forName(implName, true, ourInterface.getClassLoader());
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+        if (!ourInterface.isAssignableFrom(implClass)) {
+            return null;
+        }
+        try {
+            Constructor<?> constructor = implClass.getDeclaredConstructor(Magnet.class);
+            constructor.setAccessible(true);
+            return ourInterface.cast(constructor.newInstance(this));
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException("Generated " + implName + " failed to initialize", ex.getCause());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Cannot instantiate generated " + implName, ex);
+        }
+    }
+
+    <T> T createProxy(Class<T> ourInterface) {
         validateMethods(ourInterface);
 
         return (T) Proxy.newProxyInstance(ourInterface.getClassLoader(), new Class[]{ourInterface},
                 new InvocationHandler() {
                     @Override
                     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                        ServiceMethod serviceMethod =
-                                (ServiceMethod) loadServiceMethod(method);
-                        HttpWorker call = new HttpWorker(serviceMethod, args);
-                        return call;
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(this, args);
+                        }
+                        return Magnet.this.invoke(loadServiceMethod(method), args);
                     }
                 });
     }
@@ -38,6 +122,96 @@ public class Magnet {
 
 
 
+    /**
+     * Opens a connection to each of {@code urls} and parks it in the transport's keep-alive
+     * pool, so that the first calls to those hosts skip DNS, TCP and TLS setup. Each
+     * connection is opened with a {@code HEAD} request to the URL.
+     */
+    public void preconnect(String... urls) throws IOException {
+        preconnect(1, urls);
+    }
+
+    /**
+     * Like {@link #preconnect(String...)}, opening {@code connectionsPerHost} connections
+     * at once to each URL. The transport keeps at most its pool size idle per host.
+     */
+    public void preconnect(int connectionsPerHost, String... urls) throws IOException {
+        WarmUp.preconnect(this, connectionsPerHost, urls);
+    }
+
+    /**
+     * Gets this instance ready for traffic after a cold start. Builds the service methods
+     * of {@code services}, runs synthetic, unsent request builds through every service
+     * method built so far so the JIT compiles the call path, and preconnects to the base URL.
+     */
+    public void warmUp(Class<?>... services) throws IOException {
+        for (Class<?> service : services) {
+            validateMethods(service);
+        }
+        for (ServiceMethod serviceMethod : serviceMethodCache.values()) {
+            WarmUp.buildRequests(serviceMethod, WarmUp.SYNTHETIC_BUILDS);
+        }
+        if (baseUrl != null) {
+            preconnect(baseUrl);
+        }
+    }
+
+    public Dispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    public Gson gson() {
+        return gson;
+    }
+
+    public Cache cache() {
+        return cache;
+    }
+
+    public EventListener eventListener() {
+        return eventListener;
+    }
+
+    public Transport transport() {
+        return transport;
+    }
+
+    /**
+     * Returns the resolver set with {@link Builder#dns(Dns)}, or null if calls use the
+     * JVM's.
+     */
+    public Dns dns() {
+        return dns;
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Hedging hedging() {
+        return hedging;
+    }
+
+    public int connectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int readTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public long callTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    public RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    public RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
     private <T> void validateMethods(Class<T> ourInterface) {
         for (Method method : ourInterface.getDeclaredMethods()) {
             loadServiceMethod(method);
@@ -63,12 +237,196 @@ public class Magnet {
 
     public final static class Builder {
         private String baseUrl;
+        private Dispatcher dispatcher;
+        private ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS;
+        private Gson gson;
+        private Cache cache;
+        private boolean coalesceRequests;
+        private EventListener eventListener;
+        private Transport transport;
+        private Dns dns;
+        private CircuitBreaker circuitBreaker;
+        private Hedging hedging;
+        private int connectTimeoutMillis = 5000;
+        private int readTimeoutMillis = 5000;
+        private long callTimeoutMillis;
+        private RateLimiter rateLimiter;
+        private RetryPolicy retryPolicy;
 
         public Builder baseUrl(String baseUrl) {
             this.baseUrl = baseUrl;
             return this;
         }
 
+        public Builder dispatcher(Dispatcher dispatcher) {
+            if (dispatcher == null) {
+                throw new IllegalArgumentException("dispatcher == null");
+            }
+            this.dispatcher = dispatcher;
+            return this;
+        }
+
+        /**
+         * Selects the threads the default dispatcher uses. Ignored when a
+         * {@link #dispatcher(Dispatcher)} is given.
+         */
+        public Builder executionMode(ExecutionMode executionMode) {
+            if (executionMode == null) {
+                throw new IllegalArgumentException("executionMode == null");
+            }
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        public Builder gson(Gson gson) {
+            if (gson == null) {
+                throw new IllegalArgumentException("gson == null");
+            }
+            this.gson = gson;
+            return this;
+        }
+
+        public Builder cache(Cache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * When enabled, a GET call made while an identical one (same URL, headers and
+         * response type) is in flight waits for that call's result instead of going to the
+         * network itself.
+         */
+        public Builder coalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        public Builder eventListener(EventListener eventListener) {
+            if (eventListener == null) {
+                throw new IllegalArgumentException("eventListener == null");
+            }
+            this.eventListener = eventListener;
+            return this;
+        }
+
+        /**
+         * Sets the wire layer calls are sent over. Defaults to
+         * {@link HttpUrlConnectionTransport}; use {@link HttpClientTransport} to multiplex
+         * concurrent calls to one backend over a few HTTP/2 connections.
+         */
+        public Builder transport(Transport transport) {
+            if (transport == null) {
+                throw new IllegalArgumentException("transport == null");
+            }
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Resolves the hosts this instance calls with {@code dns} instead of the JVM's
+         * resolver, e.g. a {@link CachingDns}. Calls only go through it when the
+         * application installs {@link MagnetResolverProvider}; {@link Magnet#preconnect}
+         * always does.
+         */
+        public Builder dns(Dns dns) {
+            if (dns == null) {
+                throw new IllegalArgumentException("dns == null");
+            }
+            this.dns = dns;
+            return this;
+        }
+
+        /**
+         * Fails calls fast while their backend is failing or slow, instead of letting
+         * each wait out its timeouts.
+         */
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+            if (circuitBreaker == null) {
+                throw new IllegalArgumentException("circuitBreaker == null");
+            }
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Sends a second request for idempotent calls that are slow to answer, and uses
+         * whichever response comes first.
+         */
+        public Builder hedging(Hedging hedging) {
+            if (hedging == null) {
+                throw new IllegalArgumentException("hedging == null");
+            }
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Sets how long connecting may take for methods without a
+         * {@link com.magnet.annotations.Timeout} of their own. Defaults to 5 seconds; 0
+         * waits indefinitely.
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMillis = timeoutMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets how long each wait for response data may take. Defaults to 5 seconds; 0
+         * waits indefinitely.
+         */
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeoutMillis = timeoutMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets a deadline for whole calls, from connecting to decoding the response, after
+         * which the connection is aborted and the call fails with a
+         * {@link java.net.SocketTimeoutException}. Defaults to 0, no deadline.
+         */
+        public Builder callTimeout(long timeout, TimeUnit unit) {
+            this.callTimeoutMillis = timeoutMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Paces the calls to each host, and honors the {@code Retry-After} of throttled
+         * responses, instead of letting bursts run into the backend's rate limits.
+         */
+        public Builder rateLimiter(RateLimiter rateLimiter) {
+            if (rateLimiter == null) {
+                throw new IllegalArgumentException("rateLimiter == null");
+            }
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * Retries calls of idempotent methods that fail with a transient error, instead of
+         * each caller running a retry loop of its own.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new IllegalArgumentException("retryPolicy == null");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        private static int timeoutMillis(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout < 0: " + timeout);
+            }
+            long millis = unit.toMillis(timeout);
+            if (millis > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("timeout too large: " + timeout + " " + unit);
+            }
+            if (millis == 0 && timeout > 0) {
+                throw new IllegalArgumentException("timeout too small: " + timeout + " " + unit);
+            }
+            return (int) millis;
+        }
+
         public  Magnet build() {
             return new Magnet(this);
         }
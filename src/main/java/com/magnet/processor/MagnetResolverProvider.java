@@ -0,0 +1,210 @@
+package com.magnet.processor;
+
+import java.lang.ref.Cleaner;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * A host name resolver for the whole JVM that sends the lookups of each host a
+ * {@link Magnet} with a {@link Dns} has called to that {@code Dns}, so that connections
+ * opened by either transport resolve through it. Other hosts go to the built-in resolver
+ * as before.
+ *
+ * <p>Replacing the resolver affects every library in the process, so it is not installed
+ * by default. To opt in, list {@code com.magnet.processor.MagnetResolverProvider} in a
+ * {@code META-INF/services/java.net.spi.InetAddressResolverProvider} file of the
+ * application, and set the security property {@code networkaddress.cache.ttl} to 0 so that
+ * the JVM's own cache in front of the resolver does not override the TTLs of a
+ * {@link CachingDns}. The JDK only loads resolver providers from the system class loader.
+ * Without the provider, a configured {@code Dns} is only consulted by
+ * {@link Magnet#preconnect}.
+ *
+ * <p>A host is resolved by one {@code Dns} at a time: once the provider is installed, a
+ * call to a host that another live {@code Magnet} resolves with a different {@code Dns}
+ * fails with an {@link IllegalStateException}. The routes of a {@code Magnet} are removed once it is
+ * garbage collected.
+ */
+
+public final class MagnetResolverProvider extends InetAddressResolverProvider {
+
+    private static final Map<String, Routes> routes = new ConcurrentHashMap<>();
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * Set while a {@link Dns} is resolving on this thread, so that its own lookups, such as
+     * those of {@link Dns#SYSTEM}, go to the built-in resolver instead of back into it.
+     */
+    private static final ThreadLocal<Boolean> resolving = new ThreadLocal<>();
+
+    private static volatile InetAddressResolver builtin;
+
+    private static volatile boolean probed;
+
+    @Override
+    public InetAddressResolver get(Configuration configuration) {
+        final InetAddressResolver builtinResolver = configuration.builtinResolver();
+        builtin = builtinResolver;
+        return new InetAddressResolver() {
+            @Override
+            public Stream<InetAddress> lookupByName(String host, LookupPolicy lookupPolicy) throws UnknownHostException {
+                Routes owner = routes.get(host.toLowerCase(Locale.ROOT));
+                if (owner == null || resolving.get() != null) {
+                    return builtinResolver.lookupByName(host, lookupPolicy);
+                }
+                return filter(host, resolve(owner.dns, host), lookupPolicy.characteristics()).stream();
+            }
+
+            @Override
+            public String lookupByAddress(byte[] addr) throws UnknownHostException {
+                return builtinResolver.lookupByAddress(addr);
+            }
+        };
+    }
+
+    @Override
+    public String name() {
+        return "magnet";
+    }
+
+    /**
+     * Returns the routes of {@code magnet} to {@code dns}, which are removed when
+     * {@code magnet} is garbage collected.
+     */
+    static Routes register(Magnet magnet, Dns dns) {
+        Routes owner = new Routes(dns);
+        CLEANER.register(magnet, owner);
+        return owner;
+    }
+
+    /**
+     * The hosts one {@link Magnet} resolves with its {@link Dns}.
+     */
+    static final class Routes implements Runnable {
+
+        final Dns dns;
+        private final Set<String> hosts = ConcurrentHashMap.newKeySet();
+
+        Routes(Dns dns) {
+            this.dns = dns;
+        }
+
+        /**
+         * Sends lookups of {@code host} to this {@code Dns} from now on. Fails if another
+         * {@code Magnet} resolves the host with a different one. Does nothing unless the
+         * provider is installed, since no lookup would reach the routes.
+         */
+        void route(String host) {
+            if (host == null || host.isEmpty() || !installed()) {
+                return;
+            }
+            String key = host.toLowerCase(Locale.ROOT);
+            Routes existing = routes.putIfAbsent(key, this);
+            if (existing == null) {
+                hosts.add(key);
+            } else if (existing.dns != dns) {
+                throw new IllegalStateException("Host " + host + " is already resolved by the Dns of another Magnet");
+            }
+        }
+
+        /**
+         * Removes the routes once the {@code Magnet} is gone.
+         */
+        @Override
+        public void run() {
+            for (String host : hosts) {
+                routes.remove(host, this);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the JDK loaded this provider. The JDK loads its resolver on the
+     * first lookup, so one is made here if none has happened yet.
+     */
+    static boolean installed() {
+        if (builtin == null && !probed) {
+            probed = true;
+            try {
+                InetAddress.getAllByName("localhost");
+            } catch (UnknownHostException ignored) {
+            }
+        }
+        return builtin != null;
+    }
+
+    /**
+     * Resolves {@code host} with {@code dns}, bypassing any route for it.
+     */
+    static List<InetAddress> resolve(Dns dns, String host) throws UnknownHostException {
+        boolean outermost = resolving.get() == null;
+        if (outermost) {
+            resolving.set(Boolean.TRUE);
+        }
+        try {
+            List<InetAddress> addresses = dns.lookup(host);
+            if (addresses == null || addresses.isEmpty()) {
+                throw new UnknownHostException(host);
+            }
+            return addresses;
+        } finally {
+            if (outermost) {
+                resolving.remove();
+            }
+        }
+    }
+
+    static List<InetAddress> lookupBuiltin(String host) throws UnknownHostException {
+        InetAddressResolver resolver = builtin;
+        if (resolver != null) {
+            return Arrays.asList(resolver.lookupByName(host, InetAddressResolver.LookupPolicy.of(
+                    InetAddressResolver.LookupPolicy.IPV4 | InetAddressResolver.LookupPolicy.IPV6))
+                    .toArray(InetAddress[]::new));
+        }
+        boolean outermost = resolving.get() == null;
+        if (outermost) {
+            resolving.set(Boolean.TRUE);
+        }
+        try {
+            return Arrays.asList(InetAddress.getAllByName(host));
+        } finally {
+            if (outermost) {
+                resolving.remove();
+            }
+        }
+    }
+
+    private static List<InetAddress> filter(String host, List<InetAddress> addresses, int characteristics)
+            throws UnknownHostException {
+        boolean ipv4 = (characteristics & InetAddressResolver.LookupPolicy.IPV4) != 0;
+        boolean ipv6 = (characteristics & InetAddressResolver.LookupPolicy.IPV6) != 0;
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        boolean ipv6First = (characteristics & InetAddressResolver.LookupPolicy.IPV6_FIRST) != 0;
+        boolean ordered = ipv6First || (characteristics & InetAddressResolver.LookupPolicy.IPV4_FIRST) != 0;
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet4Address ? !ipv4 : !ipv6) {
+                continue;
+            }
+            boolean isFirst = !ordered || (address instanceof Inet6Address) == ipv6First;
+            (isFirst ? first : second).add(address);
+        }
+        first.addAll(second);
+        if (first.isEmpty()) {
+            throw new UnknownHostException(host);
+        }
+        return first;
+    }
+}
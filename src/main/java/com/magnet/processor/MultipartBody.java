@@ -0,0 +1,118 @@
+package com.magnet.processor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A multipart/form-data body made of {@code @Part} files. File contents are streamed from
+ * disk through one reusable buffer; nothing is held in heap beyond that buffer.
+ */
+
+final class MultipartBody extends RequestBody {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] DASHDASH = {'-', '-'};
+
+    private final String boundary;
+    private final String[] names;
+    private final File[] files;
+    private final byte[][] partHeaders;
+
+    MultipartBody(Map<String, File> parts) {
+        this.boundary = "magnet-" + UUID.randomUUID().toString();
+        this.names = new String[parts.size()];
+        this.files = new File[parts.size()];
+        this.partHeaders = new byte[parts.size()][];
+
+        int i = 0;
+        for (Map.Entry<String, File> part : parts.entrySet()) {
+            names[i] = part.getKey();
+            files[i] = part.getValue();
+            partHeaders[i] = partHeader(names[i], files[i]);
+            i++;
+        }
+    }
+
+    @Override
+    public String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    @Override
+    public long contentLength() {
+        long boundaryLength = boundary.length();
+        long length = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (!files[i].isFile()) {
+                return -1;
+            }
+            length += DASHDASH.length + boundaryLength + CRLF.length;
+            length += partHeaders[i].length;
+            length += files[i].length();
+            length += CRLF.length;
+        }
+        length += DASHDASH.length + boundaryLength + DASHDASH.length + CRLF.length;
+        return length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] boundaryBytes = boundary.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        for (int i = 0; i < files.length; i++) {
+            out.write(DASHDASH);
+            out.write(boundaryBytes);
+            out.write(CRLF);
+            out.write(partHeaders[i]);
+            writeFile(out, files[i], buffer);
+            out.write(CRLF);
+        }
+
+        out.write(DASHDASH);
+        out.write(boundaryBytes);
+        out.write(DASHDASH);
+        out.write(CRLF);
+        out.flush();
+    }
+
+    private static void writeFile(OutputStream out, File file, ByteBuffer buffer) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] partHeader(String name, File file) {
+        String contentType = URLConnection.guessContentTypeFromName(file.getName());
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+
+        String header = "Content-Disposition: form-data; name=\"" + escape(name)
+                + "\"; filename=\"" + escape(file.getName()) + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "\r\n";
+        return header.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+}
@@ -1,7 +1,10 @@
 package com.magnet.processor;
 
+import com.google.gson.TypeAdapter;
+
 import java.io.File;
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -11,6 +14,13 @@ import java.util.Map;
 abstract class ParameterHandler<T> {
     abstract void handle(RequestBuilder builder, T value);
 
+    /**
+     * Returns an argument {@link #handle} accepts, for building requests during warm-up.
+     */
+    Object sampleValue() {
+        return null;
+    }
+
     static class Query<T> extends ParameterHandler<T> {
         String name;
         Type type;
@@ -28,22 +38,32 @@ abstract class ParameterHandler<T> {
 
 
     static class Path<T> extends ParameterHandler<T> {
-        String name;
+        int index;
         Type type;
 
-        Path(String name, Type type) {
-            this.name = name;
+        Path(int index, Type type) {
+            this.index = index;
             this.type = type;
         }
 
+        @Override
+        Object sampleValue() {
+            return "0";
+        }
+
         @Override
         void handle(RequestBuilder builder, T value) {
-            builder.addPathParam(name, Util.covertToString(value));
+            builder.addPathParam(index, Util.covertToString(value));
         }
     }
 
     static class HeaderMap<T> extends ParameterHandler<Map<String, T>> {
 
+        @Override
+        Object sampleValue() {
+            return Collections.emptyMap();
+        }
+
         @Override
         void handle(RequestBuilder builder, Map<String, T> value) {
             if (value == null) {
@@ -64,19 +84,26 @@ abstract class ParameterHandler<T> {
 
     static class Body<T> extends ParameterHandler<T> {
         Type type;
+        TypeAdapter<T> adapter;
 
-        Body(Type type) {
+        Body(Type type, TypeAdapter<T> adapter) {
             this.type = type;
+            this.adapter = adapter;
         }
 
         @Override
         void handle(RequestBuilder builder, T value) {
-            builder.addBodyParam(value);
+            builder.addBodyParam(adapter, value);
         }
     }
 
     static class FormMap<T> extends ParameterHandler<Map<String, T>> {
 
+        @Override
+        Object sampleValue() {
+            return Collections.emptyMap();
+        }
+
         @Override
         void handle(RequestBuilder builder, Map<String, T> value) {
             if (value == null) {
@@ -95,8 +122,26 @@ abstract class ParameterHandler<T> {
         }
     }
 
+    static class Destination<T> extends ParameterHandler<T> {
+
+        @Override
+        Object sampleValue() {
+            return new File("warm-up");
+        }
+
+        @Override
+        void handle(RequestBuilder builder, T value) {
+            builder.setDestination(value);
+        }
+    }
+
     static class Part extends ParameterHandler<Map<String, File>> {
 
+        @Override
+        Object sampleValue() {
+            return Collections.singletonMap("file", new File("warm-up"));
+        }
+
         @Override
         void handle(RequestBuilder builder, Map<String, File> value) {
             builder.addPartParams(value);
@@ -0,0 +1,10 @@
+package com.magnet.processor;
+
+/**
+ * Receives transfer progress for a call. {@code contentLength} is -1 when the total size is
+ * not known in advance.
+ */
+
+public interface ProgressListener {
+    void onProgress(long bytesTransferred, long contentLength);
+}
@@ -0,0 +1,32 @@
+package com.magnet.processor;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+final class ProgressOutputStream extends FilterOutputStream {
+
+    private final long contentLength;
+    private final ProgressListener listener;
+    private long bytesWritten;
+
+    ProgressOutputStream(OutputStream out, long contentLength, ProgressListener listener) {
+        super(out);
+        this.contentLength = contentLength;
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        bytesWritten++;
+        listener.onProgress(bytesWritten, contentLength);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        bytesWritten += len;
+        listener.onProgress(bytesWritten, contentLength);
+    }
+}
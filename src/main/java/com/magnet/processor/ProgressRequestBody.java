@@ -0,0 +1,37 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Reports the bytes of a wrapped body to a {@link ProgressListener} as the transport
+ * writes them.
+ */
+
+final class ProgressRequestBody extends RequestBody {
+
+    private final RequestBody delegate;
+    private final ProgressListener listener;
+
+    ProgressRequestBody(RequestBody delegate, ProgressListener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    @Override
+    public String contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        ProgressOutputStream progress = new ProgressOutputStream(out, delegate.contentLength(), listener);
+        delegate.writeTo(progress);
+        progress.flush();
+    }
+}
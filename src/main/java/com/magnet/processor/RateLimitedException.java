@@ -0,0 +1,38 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown instead of sending a call that is over its rate limit, when the limit fails fast
+ * or the call would have to wait longer than the limiter allows.
+ */
+
+public final class RateLimitedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String limit;
+    private final long retryAfterNanos;
+
+    RateLimitedException(String limit, long retryAfterNanos) {
+        super("Rate limit of " + limit + " exceeded; retry in "
+                + TimeUnit.NANOSECONDS.toMillis(retryAfterNanos) + " ms");
+        this.limit = limit;
+        this.retryAfterNanos = retryAfterNanos;
+    }
+
+    /**
+     * Returns the host or service method whose limit was exceeded.
+     */
+    public String limit() {
+        return limit;
+    }
+
+    /**
+     * Returns how long until the limit lets a call through.
+     */
+    public long retryAfterMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(retryAfterNanos);
+    }
+}
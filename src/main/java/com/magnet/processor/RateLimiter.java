@@ -0,0 +1,268 @@
+package com.magnet.processor;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces the calls to each host with a token bucket, so that a burst of calls is spread out
+ * under the backend's rate limit instead of running into it. Methods annotated with
+ * {@link com.magnet.annotations.RateLimit} are paced by a bucket of their own as well.
+ *
+ * <p>A call over the limit waits for its turn: calls run on the dispatcher are held in the
+ * dispatcher without a thread, while synchronous calls block their caller. In fail-fast
+ * mode, or when the wait would be longer than {@code maxWait}, the call fails with a
+ * {@link RateLimitedException} instead. A {@code 429} or {@code 503} response with a
+ * {@code Retry-After} header holds back all calls to its host, and of its method if it has
+ * a limit, for the time the server asked for.
+ */
+
+public final class RateLimiter {
+
+    static final long DEFAULT_MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final Map<String, Limit> hostLimits;
+    private final Limit defaultLimit;
+    private final boolean failFast;
+    private final long maxWaitNanos;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    RateLimiter(Builder builder) {
+        hostLimits = new HashMap<>(builder.hostLimits);
+        defaultLimit = builder.defaultLimit;
+        failFast = builder.failFast;
+        maxWaitNanos = builder.maxWaitNanos;
+    }
+
+    long maxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Takes a permit for a call of {@code serviceMethod} to {@code host} from the host's
+     * bucket and the method's, and returns how long the call must wait before it is sent.
+     */
+    static long reserve(RateLimiter limiter, String host, ServiceMethod serviceMethod)
+            throws RateLimitedException {
+        Bucket hostBucket = limiter != null ? limiter.bucket(host, false) : null;
+        Bucket methodBucket = serviceMethod.rateLimit();
+        if (hostBucket == null && methodBucket == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long waitNanos = hostBucket != null ? hostBucket.reserve(now) : 0;
+        if (methodBucket != null) {
+            try {
+                waitNanos = Math.max(waitNanos, methodBucket.reserve(now));
+            } catch (RateLimitedException ex) {
+                if (hostBucket != null) {
+                    hostBucket.refund();
+                }
+                throw ex;
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Holds back the calls to {@code host} and of {@code serviceMethod} for as long as the
+     * {@code Retry-After} header of {@code response} asks.
+     */
+    static void retryAfter(RateLimiter limiter, String host, ServiceMethod serviceMethod, Response response) {
+        long delayNanos = retryAfterNanos(response);
+        if (delayNanos <= 0) {
+            return;
+        }
+        long until = System.nanoTime() + delayNanos;
+        if (limiter != null) {
+            limiter.bucket(host, true).pause(until);
+        }
+        Bucket methodBucket = serviceMethod.rateLimit();
+        if (methodBucket != null) {
+            methodBucket.pause(until);
+        }
+    }
+
+    /**
+     * Returns the wait the {@code Retry-After} header of {@code response} asks for, or 0.
+     */
+    static long retryAfterNanos(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(value.trim()));
+        } catch (NumberFormatException ex) {
+            long date = response.headerDate("Retry-After", 0);
+            return date != 0 ? TimeUnit.MILLISECONDS.toNanos(date - System.currentTimeMillis()) : 0;
+        }
+    }
+
+    /**
+     * Returns the bucket of {@code host}, or null if the host has no limit and
+     * {@code create} is false.
+     */
+    private Bucket bucket(String host, boolean create) {
+        Bucket bucket = buckets.get(host);
+        if (bucket != null) {
+            return bucket;
+        }
+        Limit limit = hostLimits.get(host.toLowerCase(Locale.ROOT));
+        if (limit == null) {
+            limit = defaultLimit;
+        }
+        if (limit == null && !create) {
+            return null;
+        }
+        Bucket created = limit != null
+                ? new Bucket(host, limit.permitsPerSecond, limit.burst, failFast, maxWaitNanos)
+                : new Bucket(host, 0, 1, failFast, maxWaitNanos);
+        bucket = buckets.putIfAbsent(host, created);
+        return bucket != null ? bucket : created;
+    }
+
+    private static final class Limit {
+        final double permitsPerSecond;
+        final int burst;
+
+        Limit(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * A token bucket kept as the theoretical arrival time of the next call (the generic
+     * cell rate algorithm), so that taking a permit is a few comparisons under a lock
+     * however long the bucket sat idle.
+     */
+    static final class Bucket {
+        private final String name;
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final boolean failFast;
+        private final long maxWaitNanos;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Guarded by lock.
+        private long theoreticalArrival;
+        private long pausedUntil;
+
+        /**
+         * A bucket with {@code permitsPerSecond} of 0 has no limit and only holds calls back
+         * while paused.
+         */
+        Bucket(String name, double permitsPerSecond, int burst, boolean failFast, long maxWaitNanos) {
+            this.name = name;
+            this.intervalNanos = permitsPerSecond > 0 ? Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+            this.toleranceNanos = intervalNanos * (burst - 1);
+            this.failFast = failFast;
+            this.maxWaitNanos = maxWaitNanos;
+            this.theoreticalArrival = System.nanoTime();
+            this.pausedUntil = theoreticalArrival;
+        }
+
+        long reserve(long now) throws RateLimitedException {
+            lock.lock();
+            try {
+                long from = pausedUntil - now > 0 ? pausedUntil : now;
+                long start = Math.max(from, theoreticalArrival - toleranceNanos);
+                long waitNanos = start - now;
+                if (waitNanos > 0 && (failFast || waitNanos > maxWaitNanos)) {
+                    throw new RateLimitedException(name, waitNanos);
+                }
+                theoreticalArrival = Math.max(theoreticalArrival, from) + intervalNanos;
+                return Math.max(0, waitNanos);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void refund() {
+            lock.lock();
+            try {
+                theoreticalArrival -= intervalNanos;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void pause(long until) {
+            lock.lock();
+            try {
+                if (until - pausedUntil > 0) {
+                    pausedUntil = until;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, Limit> hostLimits = new HashMap<>();
+        private Limit defaultLimit;
+        private boolean failFast;
+        private long maxWaitNanos = DEFAULT_MAX_WAIT_NANOS;
+
+        /**
+         * Limits the calls to {@code host} to {@code permitsPerSecond}, allowing bursts of
+         * up to {@code burst} calls after a quiet period.
+         */
+        public Builder limit(String host, double permitsPerSecond, int burst) {
+            if (host == null) {
+                throw new IllegalArgumentException("host == null");
+            }
+            hostLimits.put(host.toLowerCase(Locale.ROOT), limit(permitsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * Limits the calls to each host that has no {@link #limit} of its own. By default
+         * such hosts are only held back by {@code Retry-After}.
+         */
+        public Builder defaultLimit(double permitsPerSecond, int burst) {
+            defaultLimit = limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * Fails calls over a host limit with a {@link RateLimitedException} instead of
+         * making them wait.
+         */
+        public Builder failFast(boolean failFast) {
+            this.failFast = failFast;
+            return this;
+        }
+
+        /**
+         * Sets the longest a call waits for its turn before it fails instead. Defaults to
+         * 60 seconds.
+         */
+        public Builder maxWait(long maxWait, TimeUnit unit) {
+            if (maxWait < 0) {
+                throw new IllegalArgumentException("maxWait < 0: " + maxWait);
+            }
+            this.maxWaitNanos = unit.toNanos(maxWait);
+            return this;
+        }
+
+        private static Limit limit(double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0)) {
+                throw new IllegalArgumentException("permitsPerSecond <= 0: " + permitsPerSecond);
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst < 1: " + burst);
+            }
+            return new Limit(permitsPerSecond, burst);
+        }
+
+        public RateLimiter build() {
+            return new RateLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.magnet.processor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An HTTP request as handed to a {@link Transport}.
+ */
+
+public final class Request {
+
+    private final String url;
+    private final String method;
+    private final Map<String, String> headers;
+    private final RequestBody body;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    Request(String url, String method, Map<String, String> headers, RequestBody body,
+            int connectTimeoutMillis, int readTimeoutMillis) {
+        this.url = url;
+        this.method = method;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.body = body;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public Map<String, String> headers() {
+        return headers;
+    }
+
+    /**
+     * Returns the value of the header {@code name}, matched case-insensitively, or null.
+     */
+    public String header(String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the body to send, or null if the request has none.
+     */
+    public RequestBody body() {
+        return body;
+    }
+
+    public int connectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int readTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+}
@@ -0,0 +1,48 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Content written to the connection's output stream. A body reports its length up front
+ * when it can, so that the connection can stream it instead of buffering it in heap.
+ */
+
+public abstract class RequestBody {
+
+    /**
+     * Returns the Content-Type of this body, or null to leave the header unset.
+     */
+    public abstract String contentType();
+
+    /**
+     * Returns the number of bytes {@link #writeTo} will write, or -1 if that is not known.
+     */
+    public long contentLength() {
+        return -1;
+    }
+
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    public static RequestBody create(final String contentType, final byte[] content) {
+        if (content == null) {
+            throw new IllegalArgumentException("content == null");
+        }
+        return new RequestBody() {
+            @Override
+            public String contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return content.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(content);
+            }
+        };
+    }
+}
@@ -1,11 +1,11 @@
 package com.magnet.processor;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,10 +15,12 @@ import java.util.Map;
 
 public class RequestBuilder {
 
-    String baseUrl;
-    String relativeUrl;
+    UrlTemplate urlTemplate;
+    String[] pathValues;
+    StringBuilder query;
     String httpMethod;
-    String body;
+    RequestBody body;
+    StringBuilder form;
     boolean hasBody;
     boolean hasPart;
     boolean hasHeader;
@@ -26,6 +28,7 @@ public class RequestBuilder {
     Map<String, String> headers;
     Map<String, String> formData;
     Map<String, File> multiParts;
+    java.nio.file.Path destination;
 
 
     private static final String ISO_8859_1 = "ISO-8859-1";
@@ -33,10 +36,11 @@ public class RequestBuilder {
 
     private static final String PARAMETER_SEPARATOR = "&";
     private static final String NAME_VALUE_SEPARATOR = "=";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
 
-    RequestBuilder(String baseUrl, String relativeUrl, String httpMethod, boolean hasBody, boolean hasPart, boolean hasHeader) {
-        this.baseUrl = baseUrl;
-        this.relativeUrl = relativeUrl;
+    RequestBuilder(UrlTemplate urlTemplate, String httpMethod, boolean hasBody, boolean hasPart, boolean hasHeader) {
+        this.urlTemplate = urlTemplate;
+        this.pathValues = urlTemplate.parameterCount() > 0 ? new String[urlTemplate.parameterCount()] : null;
         this.httpMethod = httpMethod;
         this.hasBody = hasBody;
         this.hasPart = hasPart;
@@ -46,33 +50,29 @@ public class RequestBuilder {
         this.multiParts = new HashMap<>();
     }
 
+    String url() {
+        return urlTemplate.expand(pathValues, query);
+    }
+
     void addQueryParam(String name, String value) {
-        StringBuilder builder = new StringBuilder();
-        if (!relativeUrl.contains("?")) {
-            relativeUrl += "?";
+        if (query == null) {
+            query = new StringBuilder();
         } else {
-            builder.append(PARAMETER_SEPARATOR);
+            query.append(PARAMETER_SEPARATOR);
         }
 
         final String encodedName = encode(name, UTF_8);
         final String encodedValue = value != null? encode(value, UTF_8) : "";
-        builder.append(encodedName);
-        builder.append(NAME_VALUE_SEPARATOR);
-        builder.append(encodedValue);
-
-        relativeUrl += builder.toString();
+        query.append(encodedName);
+        query.append(NAME_VALUE_SEPARATOR);
+        query.append(encodedValue);
     }
 
-    void addPathParam(String name, String value) {
-        final String encodedValue = value != null? encode(value, UTF_8) : "";
-        if (relativeUrl == null) {
-            throw new AssertionError("Relative URL not found");
-        }
-
-        if (relativeUrl.replace(" ", "").contains("{" + name + "}")) {
-            throw new IllegalArgumentException("No such placeholder in relative url");
+    void addPathParam(int index, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("@Path " + urlTemplate.name(index) + " == null");
         }
-        this.relativeUrl = relativeUrl.replace(" ", "").replace("{" + name + "}", encodedValue);
+        pathValues[index] = encode(value, UTF_8);
     }
 
     void addHeader(String name, String value) {
@@ -82,14 +82,8 @@ public class RequestBuilder {
         headers.put(name, value);
     }
 
-    <T> void addBodyParam(T t) {
-        Gson gson = new GsonBuilder().create();
-        try {
-            body = gson.toJson(t);
-        } catch (Exception ex) {
-            throw new IllegalArgumentException("Class Casting exception");
-        }
-
+    <T> void addBodyParam(TypeAdapter<T> adapter, T t) {
+        body = new JsonRequestBody<>(adapter, t);
     }
 
     void addFormData(String name, String value) {
@@ -101,7 +95,34 @@ public class RequestBuilder {
             throw new IllegalArgumentException("Null value passed inside form data");
         }
 
-        this.body += parseFormParam(name, value);
+        if (form == null) {
+            form = new StringBuilder();
+        } else {
+            form.append(PARAMETER_SEPARATOR);
+        }
+        form.append(encode(name, UTF_8));
+        form.append(NAME_VALUE_SEPARATOR);
+        form.append(encode(value, UTF_8));
+    }
+
+    /**
+     * Returns the JSON or form body of the request, or null if it has none.
+     */
+    RequestBody body() {
+        if (body == null && form != null) {
+            body = RequestBody.create(FORM_CONTENT_TYPE, form.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return body;
+    }
+
+    void setDestination(Object value) {
+        if (value instanceof File) {
+            destination = ((File) value).toPath();
+        } else if (value instanceof java.nio.file.Path) {
+            destination = (java.nio.file.Path) value;
+        } else {
+            throw new IllegalArgumentException("Download destination is null");
+        }
     }
 
     void addPartParams(Map<String, File> files) {
@@ -112,19 +133,6 @@ public class RequestBuilder {
         this.multiParts = files;
     }
 
-    private static String parseFormParam(String name, String value) {
-        StringBuilder builder = new StringBuilder();
-        if (builder.length() > 0) {
-            builder.append(PARAMETER_SEPARATOR);
-        }
-        final String encodedName = encode(name, UTF_8);
-        final String encodedValue = value != null? encode(value, UTF_8) : "";
-        builder.append(encodedName);
-        builder.append(NAME_VALUE_SEPARATOR);
-        builder.append(encodedValue);
-        return builder.toString();
-    }
-
     private static String encode(final String content, final String encoding) {
         try {
             return URLEncoder.encode(content, encoding != null? encoding : ISO_8859_1);
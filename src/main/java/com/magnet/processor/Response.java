@@ -0,0 +1,117 @@
+package com.magnet.processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An HTTP response returned by a {@link Transport}. The body is the raw stream from the
+ * connection, for success and error statuses alike. Closing the response reads what is
+ * left of a short body before closing it, so that the connection can be kept alive and
+ * reused by the next call.
+ */
+
+public final class Response implements Closeable {
+
+    /** Remaining bytes worth reading to save a connection; longer bodies just close it. */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int code;
+    private final Map<String, List<String>> headers;
+    private final InputStream body;
+    private final Closeable onClose;
+
+    public Response(int code, Map<String, List<String>> headers, InputStream body, Closeable onClose) {
+        this.code = code;
+        TreeMap<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() != null) {
+                copy.put(header.getKey(), header.getValue());
+            }
+        }
+        this.headers = Collections.unmodifiableMap(copy);
+        this.body = body;
+        this.onClose = onClose;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    public boolean isSuccessful() {
+        return code >= 200 && code < 300;
+    }
+
+    /**
+     * Returns the last value of the header {@code name}, matched case-insensitively, or null.
+     */
+    public String header(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    public Map<String, List<String>> headers() {
+        return headers;
+    }
+
+    public InputStream body() {
+        return body;
+    }
+
+    public String contentType() {
+        return header("Content-Type");
+    }
+
+    long headerDate(String name, long defaultValue) {
+        return parseDate(header(name), defaultValue);
+    }
+
+    /**
+     * Parses an HTTP date, returning {@code defaultValue} if it is missing or malformed.
+     */
+    static long parseDate(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            body.close();
+        } finally {
+            if (onClose != null) {
+                onClose.close();
+            }
+        }
+    }
+
+    private void drain() {
+        byte[] buffer = new byte[8192];
+        long drained = 0;
+        try {
+            while (drained < MAX_DRAIN_BYTES) {
+                int read = body.read(buffer);
+                if (read == -1) {
+                    return;
+                }
+                drained += read;
+            }
+        } catch (IOException ex) {
+            // The connection is unusable; closing the body discards it.
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.magnet.processor;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * The elements of a JSON array response, decoded one at a time as the body is read from
+ * the connection. Declare it as the return type of an interface method to walk responses
+ * of any size in bounded memory:
+ *
+ * <pre>
+ * &#64;GET("/posts")
+ * ResponseStream&lt;Post&gt; posts() throws IOException;
+ *
+ * try (ResponseStream&lt;Post&gt; posts = api.posts()) {
+ *     while (posts.hasNext()) {
+ *         index(posts.next());
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>The call runs on the calling thread and returns once the response headers arrive.
+ * Streamed calls bypass the response cache and request coalescing. {@link #hasNext} and
+ * {@link #next} throw {@link java.io.UncheckedIOException} if reading the body fails. The
+ * stream must be closed to release its connection; it is closed automatically once the
+ * last element has been read. Not safe for use by several threads.
+ */
+
+public interface ResponseStream<T> extends Iterator<T>, Closeable {
+
+    @Override
+    void close();
+}
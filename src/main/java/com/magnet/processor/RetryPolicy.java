@@ -0,0 +1,264 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a call again when it fails with a transient I/O error or status code, waiting a
+ * random time up to an exponentially growing backoff ("full jitter") so that clients that
+ * failed together do not retry together. A {@code Retry-After} from the server is waited
+ * out instead when it is longer.
+ *
+ * <p>Only {@code GET} methods and methods marked {@link com.magnet.annotations.Idempotent}
+ * are retried. A budget caps the retries at a percentage of the calls, so that a degraded
+ * backend does not get several times its usual load from retries. Calls failed by an open
+ * circuit, a rate limit or {@link HttpWorker#cancel()} are never retried. The backoff is
+ * waited out on the thread running the call and counts against its call timeout.
+ */
+
+public final class RetryPolicy {
+
+    /**
+     * Retries the budget may save up for a burst, in thousandths.
+     */
+    private static final long MAX_BUDGET = 10_000;
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Set<Class<? extends IOException>> retryOn;
+    private final Set<Integer> retryOnStatus;
+    private final Budget budget;
+
+    RetryPolicy(Builder builder) {
+        this(builder.maxAttempts, builder.initialBackoffNanos, builder.maxBackoffNanos,
+                new HashSet<>(builder.retryOn), new HashSet<>(builder.retryOnStatus),
+                new Budget(Math.round(builder.budgetPercent * 10)));
+    }
+
+    private RetryPolicy(int maxAttempts, long initialBackoffNanos, long maxBackoffNanos,
+                        Set<Class<? extends IOException>> retryOn, Set<Integer> retryOnStatus, Budget budget) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoffNanos;
+        this.maxBackoffNanos = maxBackoffNanos;
+        this.retryOn = retryOn;
+        this.retryOnStatus = retryOnStatus;
+        this.budget = budget;
+    }
+
+    /**
+     * Number of retries sent.
+     */
+    public long retryCount() {
+        return budget.retryCount.get();
+    }
+
+    /**
+     * Number of retries not sent because the budget was used up.
+     */
+    public long budgetExhaustedCount() {
+        return budget.exhaustedCount.get();
+    }
+
+    /**
+     * Returns this policy with the values of a method's
+     * {@link com.magnet.annotations.Retry} that are not -1. The copy shares this policy's
+     * budget.
+     */
+    RetryPolicy withOverrides(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        return new RetryPolicy(
+                maxAttempts != -1 ? maxAttempts : this.maxAttempts,
+                initialBackoffMillis != -1 ? TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis) : initialBackoffNanos,
+                maxBackoffMillis != -1 ? TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis) : maxBackoffNanos,
+                retryOn, retryOnStatus, budget);
+    }
+
+    int maxAttempts() {
+        return maxAttempts;
+    }
+
+    boolean isRetryable(IOException ex) {
+        if (ex instanceof CircuitOpenException || ex instanceof RateLimitedException) {
+            return false;
+        }
+        for (Class<? extends IOException> type : retryOn) {
+            if (type.isInstance(ex)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isRetryable(int code) {
+        return retryOnStatus.contains(code);
+    }
+
+    /**
+     * Returns how long to wait before attempt {@code attempt + 1}, or -1 if the server
+     * asked for a longer wait than the backoff allows.
+     */
+    long backoffNanos(int attempt, long retryAfterNanos) {
+        if (retryAfterNanos > maxBackoffNanos) {
+            return -1;
+        }
+        long ceiling = initialBackoffNanos;
+        for (int i = 1; i < attempt && ceiling < maxBackoffNanos; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, maxBackoffNanos);
+        long jittered = ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+        return Math.max(jittered, retryAfterNanos);
+    }
+
+    /**
+     * Credits the budget with the share of a retry each call earns.
+     */
+    void deposit() {
+        budget.deposit();
+    }
+
+    /**
+     * Takes one retry from the budget, returning false if it has none left.
+     */
+    boolean tryRetry() {
+        return budget.tryRetry();
+    }
+
+    /**
+     * Gives back a retry taken with {@link #tryRetry()} that was not sent.
+     */
+    void refund() {
+        budget.refund();
+    }
+
+    private static final class Budget {
+        private final long perCall;
+        private final AtomicLong balance = new AtomicLong(MAX_BUDGET);
+        private final AtomicLong retryCount = new AtomicLong();
+        private final AtomicLong exhaustedCount = new AtomicLong();
+
+        Budget(long perCall) {
+            this.perCall = perCall;
+        }
+
+        void deposit() {
+            long current;
+            do {
+                current = balance.get();
+                if (current >= MAX_BUDGET) {
+                    return;
+                }
+            } while (!balance.compareAndSet(current, Math.min(MAX_BUDGET, current + perCall)));
+        }
+
+        boolean tryRetry() {
+            long current;
+            do {
+                current = balance.get();
+                if (current < 1000) {
+                    exhaustedCount.incrementAndGet();
+                    return false;
+                }
+            } while (!balance.compareAndSet(current, current - 1000));
+            retryCount.incrementAndGet();
+            return true;
+        }
+
+        void refund() {
+            retryCount.decrementAndGet();
+            balance.addAndGet(1000);
+        }
+    }
+
+    public static final class Builder {
+        private int maxAttempts = 3;
+        private long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        private long maxBackoffNanos = TimeUnit.SECONDS.toNanos(10);
+        private final Set<Class<? extends IOException>> retryOn = new HashSet<>(
+                Arrays.<Class<? extends IOException>>asList(SocketTimeoutException.class, SocketException.class));
+        private final Set<Integer> retryOnStatus = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+        private double budgetPercent = 10;
+
+        /**
+         * Sets how many times a call is sent at most, the first attempt included. Defaults
+         * to 3.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the backoff before the first retry, which doubles for each further retry up
+         * to {@code max}; the actual wait is a random time up to it. Defaults to 100
+         * milliseconds and 10 seconds. A {@code Retry-After} longer than {@code max} ends
+         * the retries.
+         */
+        public Builder backoff(long initial, long max, TimeUnit unit) {
+            if (initial < 0) {
+                throw new IllegalArgumentException("initial < 0: " + initial);
+            }
+            if (max < initial) {
+                throw new IllegalArgumentException("max < initial: " + max);
+            }
+            this.initialBackoffNanos = unit.toNanos(initial);
+            this.maxBackoffNanos = unit.toNanos(max);
+            return this;
+        }
+
+        /**
+         * Sets the exceptions, and their subclasses, that are retried. Defaults to
+         * {@link SocketTimeoutException} and {@link SocketException}, which covers refused
+         * and reset connections.
+         */
+        @SafeVarargs
+        public final Builder retryOn(Class<? extends IOException>... types) {
+            retryOn.clear();
+            for (Class<? extends IOException> type : types) {
+                if (type == null) {
+                    throw new IllegalArgumentException("type == null");
+                }
+                retryOn.add(type);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the response codes that are retried. Defaults to 408, 429, 500, 502, 503 and
+         * 504.
+         */
+        public Builder retryOnStatus(int... codes) {
+            retryOnStatus.clear();
+            for (int code : codes) {
+                retryOnStatus.add(code);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the most retries sent, as a percentage of the calls to methods that may be
+         * retried. Defaults to 10; up to 10 unused retries are saved for a burst.
+         */
+        public Builder budget(double percent) {
+            if (!(percent > 0 && percent <= 100)) {
+                throw new IllegalArgumentException("percent not in (0, 100]: " + percent);
+            }
+            this.budgetPercent = percent;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -1,55 +1,262 @@
 package com.magnet.processor;
 
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
 import com.magnet.annotations.Body;
+import com.magnet.annotations.CachePolicy;
+import com.magnet.annotations.CircuitBreakerPolicy;
 import com.magnet.annotations.DELETE;
+import com.magnet.annotations.Destination;
 import com.magnet.annotations.FormMap;
 import com.magnet.annotations.GET;
+import com.magnet.annotations.GzipRequest;
 import com.magnet.annotations.HeaderMap;
+import com.magnet.annotations.Idempotent;
 import com.magnet.annotations.PUT;
 import com.magnet.annotations.Part;
 import com.magnet.annotations.POST;
 import com.magnet.annotations.Path;
 import com.magnet.annotations.Query;
+import com.magnet.annotations.RateLimit;
+import com.magnet.annotations.Retry;
+import com.magnet.annotations.Timeout;
 
+import java.io.File;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
-import java.util.LinkedHashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * Created by Yadhukrishnan.e@oneteam.us
  */
 
-class ServiceMethod {
+public final class ServiceMethod {
 
-    private static final String PARAM = "[a-zA-Z][a-zA-Z0-9_-]*";
-    private static final Pattern PARAM_URL_REGEX = Pattern.compile("\\{(" + PARAM + ")\\}");
-
-    private final String baseUrl;
+    private final Class<?> service;
+    private final String methodName;
+    private final Class<?>[] parameterClasses;
+    private volatile Method method;
     private final String relativeUrl;
+    private final UrlTemplate urlTemplate;
     private final String httpMethod;
     private final boolean hasBody;
     private final boolean hasPart;
     private final boolean hasHeader;
+    private final boolean download;
+    private final boolean cacheable;
+    private final boolean cacheNoCache;
+    private final int cacheMaxAge;
+    private final int gzipMinSize;
+    private final CircuitBreaker.Policy circuitBreakerPolicy;
+    private final boolean idempotent;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long callTimeoutMillis;
+    private final RateLimiter.Bucket rateLimit;
+    private final RetryPolicy retryPolicy;
+    private final Gson gson;
+    private final CallAdapter callAdapter;
+    private final Type responseType;
+    private final TypeAdapter<?> responseAdapter;
+    private final Map<Type, TypeAdapter<?>> otherResponseAdapters = new ConcurrentHashMap<>();
 
     private ParameterHandler<?>[] parameterHandlers;
 
     ServiceMethod(Builder builder) {
-        baseUrl = builder.magnet.baseUrl;
+        service = builder.service;
+        methodName = builder.methodName;
+        parameterClasses = builder.parameterClasses.toArray(new Class<?>[0]);
+        method = builder.method;
         relativeUrl = builder.relativeUrl;
+        urlTemplate = builder.urlTemplate;
         httpMethod = builder.httpMethod;
         hasBody = builder.hasBody;
         hasPart = builder.hasPart;
         hasHeader = builder.hasHeader;
-        parameterHandlers = builder.mParameterHandlers;
+        download = builder.hasDestination;
+        cacheable = "GET".equals(builder.httpMethod) && !builder.cacheNoStore && !download;
+        cacheNoCache = builder.cacheNoCache;
+        cacheMaxAge = builder.cacheMaxAge;
+        gzipMinSize = builder.gzipMinSize;
+        circuitBreakerPolicy = builder.circuitBreakerPolicy;
+        idempotent = "GET".equals(builder.httpMethod) || builder.idempotent;
+        connectTimeoutMillis = builder.connectTimeoutMillis != -1
+                ? builder.connectTimeoutMillis
+                : builder.magnet.connectTimeoutMillis;
+        readTimeoutMillis = builder.readTimeoutMillis != -1
+                ? builder.readTimeoutMillis
+                : builder.magnet.readTimeoutMillis;
+        callTimeoutMillis = builder.callTimeoutMillis != -1
+                ? builder.callTimeoutMillis
+                : builder.magnet.callTimeoutMillis;
+        parameterHandlers = builder.parameterHandlers.toArray(new ParameterHandler<?>[0]);
+        gson = builder.magnet.gson;
+        callAdapter = builder.callAdapter;
+        responseType = builder.responseType;
+        responseAdapter = builder.responseAdapter;
+        rateLimit = builder.rateLimitPermitsPerSecond > 0
+                ? new RateLimiter.Bucket(toString(), builder.rateLimitPermitsPerSecond, builder.rateLimitBurst,
+                        builder.rateLimitFailFast, builder.magnet.rateLimiter != null
+                                ? builder.magnet.rateLimiter.maxWaitNanos()
+                                : RateLimiter.DEFAULT_MAX_WAIT_NANOS)
+                : null;
+        retryPolicy = retryPolicy(builder);
+    }
+
+    private static RetryPolicy retryPolicy(Builder builder) {
+        RetryPolicy clientPolicy = builder.magnet.retryPolicy;
+        if (!builder.hasRetry) {
+            return clientPolicy;
+        }
+        if (!builder.retryEnabled) {
+            return null;
+        }
+        RetryPolicy base = clientPolicy != null ? clientPolicy : new RetryPolicy.Builder().build();
+        return base.withOverrides(builder.retryMaxAttempts, builder.retryInitialBackoffMillis,
+                builder.retryMaxBackoffMillis);
+    }
+
+    /**
+     * Returns the interface method this was built for. Methods built by a generated
+     * implementation look it up on first use.
+     */
+    public Method method() {
+        Method result = method;
+        if (result == null) {
+            try {
+                result = service.getMethod(methodName, parameterClasses);
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalStateException("No method " + this + " on " + service.getName(), ex);
+            }
+            method = result;
+        }
+        return result;
+    }
+
+    public String httpMethod() {
+        return httpMethod;
+    }
+
+    public String relativeUrl() {
+        return relativeUrl;
+    }
+
+    @Override
+    public String toString() {
+        return service.getSimpleName() + "." + methodName
+                + " (" + httpMethod + " " + relativeUrl + ")";
+    }
+
+    Type responseType() {
+        return responseType;
+    }
+
+    Object adapt(HttpWorker<Object> call) throws Exception {
+        return callAdapter.adapt(call);
+    }
+
+    /**
+     * Returns true if the response body is written to the {@link Destination} file instead
+     * of being decoded.
+     */
+    boolean isDownload() {
+        return download;
+    }
+
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    boolean cacheNoCache() {
+        return cacheNoCache;
+    }
+
+    int cacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * Returns the smallest request body worth gzip-compressing, or -1 if bodies of this
+     * method are sent uncompressed.
+     */
+    int gzipMinSize() {
+        return gzipMinSize;
+    }
+
+    /**
+     * Returns the method's own circuit breaker settings, or null if it shares its host's
+     * circuit.
+     */
+    CircuitBreaker.Policy circuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * Returns true for {@code GET} methods and methods marked {@link Idempotent}, which
+     * may be sent more than once.
+     */
+    boolean isIdempotent() {
+        return idempotent;
+    }
+
+    int connectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    int readTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Returns how long a call may take from start to finish, or 0 if it has no deadline.
+     */
+    long callTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    /**
+     * Returns the method's own token bucket, or null if only its host's limit applies.
+     */
+    RateLimiter.Bucket rateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Returns the policy failed calls are retried by, or null if they are not.
+     */
+    RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    <T> TypeAdapter<T> responseAdapter(Type type) {
+        if (type.equals(responseType) && responseAdapter != null) {
+            return (TypeAdapter<T>) responseAdapter;
+        }
+
+        TypeAdapter<?> adapter = otherResponseAdapters.get(type);
+        if (adapter == null) {
+            adapter = gson.getAdapter(TypeToken.get(type));
+            otherResponseAdapters.put(type, adapter);
+        }
+        return (TypeAdapter<T>) adapter;
+    }
+
+    Object[] sampleArguments() {
+        Object[] args = new Object[parameterHandlers.length];
+        for (int p = 0; p < args.length; p++) {
+            args[p] = parameterHandlers[p].sampleValue();
+        }
+        return args;
     }
 
     RequestBuilder toRequestBuilder(Object[] objs) {
-        RequestBuilder builder = new RequestBuilder(baseUrl, relativeUrl, httpMethod, hasBody, hasPart, hasHeader);
+        RequestBuilder builder = new RequestBuilder(urlTemplate, httpMethod, hasBody, hasPart, hasHeader);
 
         int argsCount = objs != null ? objs.length : 0;
         if (argsCount != parameterHandlers.length) {
@@ -65,42 +272,265 @@ class ServiceMethod {
         return builder;
     }
 
-    final static class Builder {
+    /**
+     * Describes one interface method: its HTTP method and URL, its parameters in declaration
+     * order, and its return type. {@link Magnet#create} feeds it from the method's annotations
+     * at runtime; implementations generated by {@code magnet-compiler} call the same methods
+     * with values read at compile time.
+     */
+    public static final class Builder {
         final Magnet magnet;
-        final Method method;
-        final Annotation[] methodAnnotations;
-        final Annotation[][] parameterAnnotationsArray;
-        final Type[] parameterTypes;
+        final Class<?> service;
+        final String methodName;
+        Method method;
 
-        ParameterHandler<?>[] mParameterHandlers;
+        final List<ParameterHandler<?>> parameterHandlers = new ArrayList<>();
+        final List<Class<?>> parameterClasses = new ArrayList<>();
 
         boolean hasBody;
         boolean hasPart;
         boolean hasHeader;
+        boolean hasDestination;
+        boolean cacheNoCache;
+        boolean cacheNoStore;
+        int cacheMaxAge = -1;
+        int gzipMinSize = -1;
+        CircuitBreaker.Policy circuitBreakerPolicy;
+        boolean idempotent;
+        int connectTimeoutMillis = -1;
+        int readTimeoutMillis = -1;
+        long callTimeoutMillis = -1;
+        double rateLimitPermitsPerSecond;
+        int rateLimitBurst;
+        boolean rateLimitFailFast;
+        boolean hasRetry;
+        boolean retryEnabled;
+        int retryMaxAttempts;
+        long retryInitialBackoffMillis;
+        long retryMaxBackoffMillis;
         String httpMethod;
         String relativeUrl;
-        Set<String> relativeUrlParamNames;
+        UrlTemplate urlTemplate;
+        CallAdapter callAdapter;
+        Type responseType;
+        TypeAdapter<?> responseAdapter;
 
+        public Builder(Magnet magnet, Class<?> service, String methodName) {
+            if (magnet == null) {
+                throw new IllegalArgumentException("magnet == null");
+            }
+            if (service == null) {
+                throw new IllegalArgumentException("service == null");
+            }
+            if (methodName == null) {
+                throw new IllegalArgumentException("methodName == null");
+            }
+            this.magnet = magnet;
+            this.service = service;
+            this.methodName = methodName;
+        }
 
         Builder(Magnet magnet, Method method) {
-            this.magnet = magnet;
+            this(magnet, method.getDeclaringClass(), method.getName());
             this.method = method;
-            this.methodAnnotations = method.getDeclaredAnnotations();
-            this.parameterAnnotationsArray = method.getParameterAnnotations();
-            this.parameterTypes = method.getGenericParameterTypes();
-        }
 
-        ServiceMethod build() {
-            for (Annotation annotation : methodAnnotations) {
+            for (Annotation annotation : method.getDeclaredAnnotations()) {
                 parseMethodAnnotation(annotation);
             }
 
-            int parameterCount = parameterAnnotationsArray.length;
-            mParameterHandlers = new ParameterHandler<?>[parameterCount];
-            for (int p = 0; p < parameterCount; p++) {
-                Type parameterType = parameterTypes[p];
-                Annotation[] parameterAnnotations = parameterAnnotationsArray[p];
-                mParameterHandlers[p] = parseParameter(parameterType, parameterAnnotations);
+            returnType(method.getGenericReturnType(), method.getExceptionTypes());
+
+            Annotation[][] parameterAnnotationsArray = method.getParameterAnnotations();
+            Type[] parameterTypes = method.getGenericParameterTypes();
+            for (int p = 0; p < parameterTypes.length; p++) {
+                parseParameter(parameterTypes[p], parameterAnnotationsArray[p]);
+            }
+        }
+
+        public Builder get(String relativeUrl) {
+            return httpMethod("GET", relativeUrl);
+        }
+
+        public Builder post(String relativeUrl) {
+            return httpMethod("POST", relativeUrl);
+        }
+
+        public Builder put(String relativeUrl) {
+            return httpMethod("PUT", relativeUrl);
+        }
+
+        public Builder delete(String relativeUrl) {
+            return httpMethod("DELETE", relativeUrl);
+        }
+
+        private Builder httpMethod(String httpMethod, String relativeUrl) {
+            if (relativeUrl == null) {
+                throw new IllegalArgumentException("relativeUrl == null");
+            }
+            if (this.httpMethod != null) {
+                throw new IllegalArgumentException("Only one HTTP method is allowed: " + methodName);
+            }
+            this.httpMethod = httpMethod;
+            this.relativeUrl = relativeUrl;
+            this.urlTemplate = UrlTemplate.parse(magnet.baseUrl, relativeUrl);
+            return this;
+        }
+
+        public Builder cachePolicy(int maxAge, boolean noCache, boolean noStore) {
+            cacheMaxAge = maxAge;
+            cacheNoCache = noCache;
+            cacheNoStore = noStore;
+            return this;
+        }
+
+        public Builder gzipRequest(int minSize) {
+            gzipMinSize = Math.max(0, minSize);
+            return this;
+        }
+
+        public Builder circuitBreakerPolicy(boolean enabled, int failureRateThreshold, int slowCallRateThreshold,
+                                            long slowCallMillis, long openMillis) {
+            circuitBreakerPolicy = new CircuitBreaker.Policy(enabled, failureRateThreshold, slowCallRateThreshold,
+                    slowCallMillis, openMillis);
+            return this;
+        }
+
+        public Builder idempotent() {
+            idempotent = true;
+            return this;
+        }
+
+        public Builder timeout(int connectMillis, int readMillis, long callMillis) {
+            if (connectMillis < -1 || readMillis < -1 || callMillis < -1) {
+                throw new IllegalArgumentException("Timeouts must be -1 or more: " + methodName);
+            }
+            connectTimeoutMillis = connectMillis;
+            readTimeoutMillis = readMillis;
+            callTimeoutMillis = callMillis;
+            return this;
+        }
+
+        public Builder rateLimit(double permitsPerSecond, int burst, boolean failFast) {
+            if (!(permitsPerSecond > 0)) {
+                throw new IllegalArgumentException("permitsPerSecond <= 0: " + methodName);
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst < 1: " + methodName);
+            }
+            rateLimitPermitsPerSecond = permitsPerSecond;
+            rateLimitBurst = burst;
+            rateLimitFailFast = failFast;
+            return this;
+        }
+
+        public Builder retry(boolean enabled, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+            if (maxAttempts < -1 || maxAttempts == 0) {
+                throw new IllegalArgumentException("maxAttempts must be -1 or at least 1: " + methodName);
+            }
+            if (initialBackoffMillis < -1 || maxBackoffMillis < -1) {
+                throw new IllegalArgumentException("Backoffs must be -1 or more: " + methodName);
+            }
+            hasRetry = true;
+            retryEnabled = enabled;
+            retryMaxAttempts = maxAttempts;
+            retryInitialBackoffMillis = initialBackoffMillis;
+            retryMaxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        public Builder returnType(Type returnType, Class<?>... exceptionTypes) {
+            if (returnType == null) {
+                throw new IllegalArgumentException("returnType == null");
+            }
+            callAdapter = CallAdapter.forReturnType(returnType, exceptionTypes, methodName);
+            responseType = callAdapter.responseType();
+            return this;
+        }
+
+        public Builder path(String name, Type type) {
+            int index = urlTemplate != null ? urlTemplate.indexOf(name) : -1;
+            if (index == -1) {
+                throw new IllegalArgumentException("No such placeholder in relative url: " + name);
+            }
+            return parameter(type, new ParameterHandler.Path<>(index, type));
+        }
+
+        public Builder query(String name, Type type) {
+            return parameter(type, new ParameterHandler.Query<>(type, name));
+        }
+
+        public Builder body(Type type) {
+            hasBody = true;
+            return parameter(type, new ParameterHandler.Body<>(type, magnet.gson.getAdapter(TypeToken.get(type))));
+        }
+
+        public Builder headerMap(Type type) {
+            hasHeader = true;
+            return parameter(type, new ParameterHandler.HeaderMap<>());
+        }
+
+        public Builder formMap(Type type) {
+            hasBody = true;
+            return parameter(type, new ParameterHandler.FormMap<>());
+        }
+
+        public Builder part(Type type) {
+            hasBody = true;
+            hasPart = true;
+            return parameter(type, new ParameterHandler.Part());
+        }
+
+        public Builder destination(Type type) {
+            if (type != File.class && type != java.nio.file.Path.class) {
+                throw new IllegalArgumentException("@Destination parameter must be a File or Path");
+            }
+            if (hasDestination) {
+                throw new IllegalArgumentException("Only one @Destination parameter is allowed");
+            }
+            hasDestination = true;
+            return parameter(type, new ParameterHandler.Destination<>());
+        }
+
+        private boolean hasPath(int index) {
+            for (ParameterHandler<?> handler : parameterHandlers) {
+                if (handler instanceof ParameterHandler.Path && ((ParameterHandler.Path<?>) handler).index == index) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Builder parameter(Type type, ParameterHandler<?> handler) {
+            parameterClasses.add(Util.rawType(type));
+            parameterHandlers.add(handler);
+            return this;
+        }
+
+        public ServiceMethod build() {
+            if (callAdapter == null) {
+                throw new IllegalArgumentException("No return type given for " + methodName);
+            }
+
+            if (hasDestination) {
+                if (callAdapter instanceof CallAdapter.Streaming
+                        || (responseType != null && responseType != File.class && responseType != java.nio.file.Path.class)) {
+                    throw new IllegalArgumentException("@Destination methods must return File or Path: " + methodName);
+                }
+            } else if (responseType != null && responseType != String.class) {
+                responseAdapter = magnet.gson.getAdapter(TypeToken.get(responseType));
+            }
+
+            if (gzipMinSize != -1 && (!hasBody || hasPart)) {
+                throw new IllegalArgumentException("@GzipRequest needs a @Body or @FormMap parameter: " + methodName);
+            }
+
+            if (urlTemplate != null) {
+                for (int i = 0; i < urlTemplate.parameterCount(); i++) {
+                    if (!hasPath(i)) {
+                        throw new IllegalArgumentException("No @Path parameter for placeholder {"
+                                + urlTemplate.name(i) + "}: " + methodName);
+                    }
+                }
             }
 
             return new ServiceMethod(this);
@@ -108,77 +538,67 @@ class ServiceMethod {
 
         private void parseMethodAnnotation(Annotation annotation) {
             if (annotation instanceof GET) {
-                httpMethod = "GET";
-                relativeUrl = ((GET) annotation).value();
-                relativeUrlParamNames = parsePathParameters(relativeUrl);
+                get(((GET) annotation).value());
             } else if (annotation instanceof POST) {
-                httpMethod = "POST";
-                relativeUrl = ((POST) annotation).value();
-                relativeUrlParamNames = parsePathParameters(relativeUrl);
+                post(((POST) annotation).value());
             } else if (annotation instanceof PUT) {
-                httpMethod = "PUT";
-                relativeUrl = ((PUT) annotation).value();
-                relativeUrlParamNames = parsePathParameters(relativeUrl);
+                put(((PUT) annotation).value());
             } else if (annotation instanceof DELETE) {
-                httpMethod = "DELETE";
-                relativeUrl = ((DELETE) annotation).value();
-                relativeUrlParamNames = parsePathParameters(relativeUrl);
+                delete(((DELETE) annotation).value());
+            } else if (annotation instanceof CachePolicy) {
+                CachePolicy cachePolicy = (CachePolicy) annotation;
+                cachePolicy(cachePolicy.maxAge(), cachePolicy.noCache(), cachePolicy.noStore());
+            } else if (annotation instanceof GzipRequest) {
+                gzipRequest(((GzipRequest) annotation).minSize());
+            } else if (annotation instanceof CircuitBreakerPolicy) {
+                CircuitBreakerPolicy policy = (CircuitBreakerPolicy) annotation;
+                circuitBreakerPolicy(policy.enabled(), policy.failureRateThreshold(), policy.slowCallRateThreshold(),
+                        policy.slowCallMillis(), policy.openMillis());
+            } else if (annotation instanceof Idempotent) {
+                idempotent();
+            } else if (annotation instanceof Timeout) {
+                Timeout timeout = (Timeout) annotation;
+                timeout(timeout.connectMillis(), timeout.readMillis(), timeout.callMillis());
+            } else if (annotation instanceof RateLimit) {
+                RateLimit rateLimit = (RateLimit) annotation;
+                rateLimit(rateLimit.permitsPerSecond(), rateLimit.burst(), rateLimit.failFast());
+            } else if (annotation instanceof Retry) {
+                Retry retry = (Retry) annotation;
+                retry(retry.enabled(), retry.maxAttempts(), retry.initialBackoffMillis(), retry.maxBackoffMillis());
             }
         }
 
-        private ParameterHandler<?> parseParameter(Type parameterType, Annotation[] annotations) {
-            ParameterHandler<?> result = null;
+        private void parseParameter(Type parameterType, Annotation[] annotations) {
+            Annotation parameterAnnotation = null;
             for (Annotation annotation : annotations) {
-                ParameterHandler<?> annotationAction = parseParameterAnnotation(parameterType, annotation);
-                if (annotationAction == null) {
-                    continue;
+                if (annotation instanceof Query || annotation instanceof Body || annotation instanceof Path
+                        || annotation instanceof HeaderMap || annotation instanceof FormMap
+                        || annotation instanceof Destination || annotation instanceof Part) {
+                    parameterAnnotation = annotation;
+                } else {
+                    throw new IllegalArgumentException("You have used unknown parameter annotation");
                 }
-
-                result = annotationAction;
             }
 
-            if (result == null) {
+            if (parameterAnnotation == null) {
                 throw new IllegalArgumentException("Empty parameter");
             }
 
-            return result;
-        }
-
-        private ParameterHandler<?> parseParameterAnnotation(Type parameterType, Annotation annotation) {
-            if (annotation instanceof Query) {
-                Query query = (Query) annotation;
-                String value = query.value();
-                return new ParameterHandler.Query<>(parameterType, value) ;
-            } else if (annotation instanceof Body) {
-                hasBody = true;
-                return new ParameterHandler.Body<>(parameterType);
-            } else if (annotation instanceof Path) {
-                Path path = (Path) annotation;
-                String value = path.value();
-                return new ParameterHandler.Path<>(value, parameterType);
-            } else if (annotation instanceof HeaderMap){
-                hasHeader = true;
-                return new ParameterHandler.HeaderMap<>();
-            } else if (annotation instanceof FormMap) {
-                hasBody = true;
-                return new ParameterHandler.FormMap<>();
-            } else if (annotation instanceof Part) {
-                hasBody = true;
-                hasPart = true;
-                return new ParameterHandler.Part();
+            if (parameterAnnotation instanceof Query) {
+                query(((Query) parameterAnnotation).value(), parameterType);
+            } else if (parameterAnnotation instanceof Body) {
+                body(parameterType);
+            } else if (parameterAnnotation instanceof Path) {
+                path(((Path) parameterAnnotation).value(), parameterType);
+            } else if (parameterAnnotation instanceof HeaderMap) {
+                headerMap(parameterType);
+            } else if (parameterAnnotation instanceof FormMap) {
+                formMap(parameterType);
+            } else if (parameterAnnotation instanceof Destination) {
+                destination(parameterType);
             } else {
-                throw new IllegalArgumentException("You have used unknown parameter annotation");
+                part(parameterType);
             }
         }
-
-        static Set<String> parsePathParameters(String path) {
-            Matcher m = PARAM_URL_REGEX.matcher(path);
-            Set<String> patterns = new LinkedHashSet<>();
-            while (m.find()) {
-                patterns.add(m.group(1));
-            }
-            return patterns;
-        }
-
     }
 }
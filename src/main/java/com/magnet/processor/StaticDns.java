@@ -0,0 +1,100 @@
+package com.magnet.processor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers from a fixed map of host names to IP addresses, and passes other hosts to a
+ * fallback. Useful for pinning a backend to known addresses, and for tests that must not
+ * touch the network.
+ */
+
+public final class StaticDns implements Dns {
+
+    private final Map<String, List<InetAddress>> hosts = new ConcurrentHashMap<>();
+    private final Dns fallback;
+
+    /**
+     * Creates a map that fails lookups of hosts it does not contain.
+     */
+    public StaticDns() {
+        this.fallback = null;
+    }
+
+    public StaticDns(Dns fallback) {
+        if (fallback == null) {
+            throw new IllegalArgumentException("fallback == null");
+        }
+        this.fallback = fallback;
+    }
+
+    /**
+     * Maps {@code hostname} to {@code ipAddresses}, which must be IPv4 or IPv6 literals.
+     */
+    public StaticDns put(String hostname, String... ipAddresses) {
+        if (hostname == null) {
+            throw new IllegalArgumentException("hostname == null");
+        }
+        if (ipAddresses.length == 0) {
+            throw new IllegalArgumentException("No addresses for " + hostname);
+        }
+
+        List<InetAddress> addresses = new ArrayList<>();
+        for (String ipAddress : ipAddresses) {
+            if (ipAddress == null || !isIpLiteral(ipAddress)) {
+                throw new IllegalArgumentException("Not an IP address: " + ipAddress);
+            }
+            try {
+                // Literals are parsed without a lookup.
+                byte[] address = InetAddress.getByName(ipAddress).getAddress();
+                addresses.add(InetAddress.getByAddress(hostname, address));
+            } catch (UnknownHostException ex) {
+                throw new IllegalArgumentException("Not an IP address: " + ipAddress, ex);
+            }
+        }
+        hosts.put(hostname.toLowerCase(Locale.ROOT), Collections.unmodifiableList(addresses));
+        return this;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        List<InetAddress> addresses = hosts.get(hostname.toLowerCase(Locale.ROOT));
+        if (addresses != null) {
+            return addresses;
+        }
+        if (fallback != null) {
+            return fallback.lookup(hostname);
+        }
+        throw new UnknownHostException(hostname);
+    }
+
+    private static boolean isIpLiteral(String address) {
+        if (address.indexOf(':') != -1) {
+            return true;
+        }
+        String[] parts = address.split("\\.", -1);
+        if (parts.length != 4) {
+            return false;
+        }
+        for (String part : parts) {
+            if (part.isEmpty() || part.length() > 3) {
+                return false;
+            }
+            for (int i = 0; i < part.length(); i++) {
+                if (part.charAt(i) < '0' || part.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            if (Integer.parseInt(part) > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+
+/**
+ * The wire layer that carries a {@link Request} to the server and brings back its
+ * {@link Response}. Each call opens one {@link Exchange} and drives it step by step, so
+ * that events and timings can be reported between the steps.
+ */
+
+public interface Transport {
+
+    Exchange newExchange(Request request) throws IOException;
+
+    interface Exchange {
+
+        /**
+         * Establishes or reuses a connection. Transports that connect lazily may do nothing
+         * here.
+         */
+        void connect() throws IOException;
+
+        /**
+         * Sends the request, including its body if it has one.
+         */
+        void writeRequest() throws IOException;
+
+        /**
+         * Waits for the response status and headers. The caller must close the response.
+         */
+        Response readResponse() throws IOException;
+
+        /**
+         * Aborts the exchange, releasing its connection. Safe to call from any thread and
+         * at any point, including after the exchange completed.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,113 @@
+package com.magnet.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A request URL split once into literal segments and {@code {name}} slots, so that a call
+ * only has to fill in the slot values and the query string.
+ */
+
+final class UrlTemplate {
+
+    private static final String PARAM = "[a-zA-Z][a-zA-Z0-9_-]*";
+    private static final Pattern PARAM_URL_REGEX = Pattern.compile("\\{(" + PARAM + ")\\}");
+
+    private final String url;
+    private final String[] literals;
+    private final int[] slots;
+    private final String[] names;
+    private final int literalLength;
+    private final boolean hasQuery;
+
+    private UrlTemplate(String url, String[] literals, int[] slots, String[] names) {
+        this.url = url;
+        this.literals = literals;
+        this.slots = slots;
+        this.names = names;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+        this.hasQuery = url.indexOf('?') != -1;
+    }
+
+    static UrlTemplate parse(String baseUrl, String relativeUrl) {
+        String path = relativeUrl.replace(" ", "");
+        String url = path.startsWith("http") || baseUrl == null ? path : baseUrl + path;
+
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+
+        Matcher m = PARAM_URL_REGEX.matcher(url);
+        int start = 0;
+        while (m.find()) {
+            literals.add(url.substring(start, m.start()));
+            String name = m.group(1);
+            int index = names.indexOf(name);
+            if (index == -1) {
+                index = names.size();
+                names.add(name);
+            }
+            slots.add(index);
+            start = m.end();
+        }
+        literals.add(url.substring(start));
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new UrlTemplate(url, literals.toArray(new String[literals.size()]), slotArray,
+                names.toArray(new String[names.size()]));
+    }
+
+    int parameterCount() {
+        return names.length;
+    }
+
+    String name(int index) {
+        return names[index];
+    }
+
+    int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String expand(String[] values, CharSequence query) {
+        int queryLength = query != null ? query.length() : 0;
+        if (slots.length == 0 && queryLength == 0) {
+            return url;
+        }
+
+        int length = literalLength + queryLength + 1;
+        for (int slot : slots) {
+            length += values[slot] != null ? values[slot].length() : 0;
+        }
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]);
+            String value = values[slots[i]];
+            if (value != null) {
+                builder.append(value);
+            }
+        }
+        builder.append(literals[slots.length]);
+
+        if (queryLength > 0) {
+            builder.append(hasQuery ? '&' : '?');
+            builder.append(query);
+        }
+        return builder.toString();
+    }
+}
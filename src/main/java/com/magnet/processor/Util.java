@@ -1,5 +1,29 @@
 package com.magnet.processor;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
 /**
  * Created by yadhukrishnan.e@oneteam.us
  */
@@ -12,4 +36,118 @@ class Util {
         else if (value instanceof Double) return value + "";
         else return (String) value;
     }
+
+    static Charset charset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String trimmed = parameter.trim();
+                if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String name = trimmed.substring(8).replace("\"", "").trim();
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+                        break;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    static String readString(InputStream in, Charset charset) throws IOException {
+        Reader reader = new InputStreamReader(in, charset);
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        int length;
+        while ((length = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, length);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Wraps {@code in} to undo a gzip or deflate {@code Content-Encoding}. Deflate is
+     * accepted with and without the zlib wrapper, since servers send both. An empty body
+     * is returned as it is.
+     */
+    static InputStream decompress(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return in;
+        }
+        String encoding = contentEncoding.trim();
+        boolean gzip = encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip");
+        if (!gzip && !encoding.equalsIgnoreCase("deflate")) {
+            return in;
+        }
+
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int first = pushback.read();
+        if (first == -1) {
+            return pushback;
+        }
+        int second = pushback.read();
+        if (second != -1) {
+            pushback.unread(second);
+        }
+        pushback.unread(first);
+
+        if (gzip) {
+            return new GZIPInputStream(pushback, 8192);
+        }
+        boolean zlib = second != -1 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pushback, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    static <T> T readJson(TypeAdapter<T> adapter, JsonReader reader) throws IOException {
+        reader.setLenient(true);
+        try {
+            reader.peek();
+        } catch (EOFException ex) {
+            return null;
+        }
+        return adapter.read(reader);
+    }
+
+    /**
+     * Parses {@code url} through {@link URI}, in place of the deprecated
+     * {@code new URL(String)}. This is stricter: a URL that is not a valid URI, such as one
+     * with an unencoded space, or one that is not absolute, fails with a
+     * {@link MalformedURLException}.
+     */
+    static URL toUrl(String url) throws MalformedURLException {
+        try {
+            return URI.create(url).toURL();
+        } catch (IllegalArgumentException ex) {
+            MalformedURLException malformed = new MalformedURLException("Invalid url: " + url);
+            malformed.initCause(ex);
+            throw malformed;
+        }
+    }
+
+    /**
+     * Returns the erasure of {@code type}, e.g. {@code List.class} for {@code List<String>}.
+     */
+    static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if (type instanceof GenericArrayType) {
+            Class<?> component = rawType(((GenericArrayType) type).getGenericComponentType());
+            return Array.newInstance(component, 0).getClass();
+        }
+        return Object.class;
+    }
 }
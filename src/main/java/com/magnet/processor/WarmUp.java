@@ -0,0 +1,114 @@
+package com.magnet.processor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Does the work behind {@link Magnet#preconnect} and {@link Magnet#warmUp}: parks
+ * keep-alive connections in the transport's pool, and runs request builds that are never
+ * sent so that the JIT has compiled the call path before real traffic arrives.
+ */
+
+final class WarmUp {
+
+    /**
+     * Enough invocations for the request building code to reach the optimizing compiler.
+     */
+    static final int SYNTHETIC_BUILDS = 10_000;
+
+    private WarmUp() {
+    }
+
+    static void preconnect(final Magnet magnet, int connectionsPerHost, String... urls) throws IOException {
+        if (connectionsPerHost < 1) {
+            throw new IllegalArgumentException("connectionsPerHost < 1: " + connectionsPerHost);
+        }
+
+        List<Future<Void>> connections = new ArrayList<>();
+        for (final String url : urls) {
+            String host = Util.toUrl(url).getHost();
+            if (magnet.dns != null) {
+                magnet.dnsRoutes.route(host);
+                MagnetResolverProvider.resolve(magnet.dns, host);
+            } else {
+                InetAddress.getAllByName(host);
+            }
+            for (int i = 0; i < connectionsPerHost; i++) {
+                connections.add(magnet.dispatcher.executorService().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        connect(magnet, url);
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        IOException failure = null;
+        for (Future<Void> connection : connections) {
+            try {
+                connection.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while preconnecting");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (failure == null) {
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Opens a connection with a {@code HEAD} request and closes the response, which leaves
+     * the connection idle in the transport's keep-alive pool.
+     */
+    private static void connect(Magnet magnet, String url) throws IOException {
+        Request request = new Request(url, "HEAD", Collections.<String, String>emptyMap(), null,
+                magnet.connectTimeoutMillis, magnet.readTimeoutMillis);
+        Transport.Exchange exchange = magnet.transport.newExchange(request);
+        try {
+            exchange.connect();
+            exchange.writeRequest();
+            exchange.readResponse().close();
+        } catch (IOException | RuntimeException ex) {
+            exchange.cancel();
+            throw ex;
+        }
+    }
+
+    /**
+     * Builds the URL and body of {@code count} requests from sample arguments. Methods that
+     * reject the sample arguments are left cold.
+     */
+    static void buildRequests(ServiceMethod serviceMethod, int count) {
+        Object[] args = serviceMethod.sampleArguments();
+        try {
+            for (int i = 0; i < count; i++) {
+                RequestBuilder builder = serviceMethod.toRequestBuilder(args);
+                builder.url();
+                RequestBody body = builder.body();
+                if (body != null) {
+                    body.writeTo(OutputStream.nullOutputStream());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Not worth failing a warm-up over.
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.magnet.processor;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels calls that run past their deadline, and reads that wait past their timeout. One
+ * daemon thread serves every client; it only fires timers, which abort the connection of
+ * a late call and return.
+ */
+
+final class Watchdog {
+
+    private static final ScheduledThreadPoolExecutor TIMER = newTimer();
+
+    private Watchdog() {
+    }
+
+    static ScheduledFuture<?> schedule(final HttpWorker<?> call, long delayMillis) {
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                call.timeOut();
+            }
+        }, delayMillis);
+    }
+
+    static ScheduledFuture<?> schedule(Runnable timeout, long delayMillis) {
+        return TIMER.schedule(timeout, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Magnet Watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
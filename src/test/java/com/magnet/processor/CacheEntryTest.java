@@ -0,0 +1,146 @@
+package com.magnet.processor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheEntryTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void maxAgeCountsFromTheAgeTheServerReports() {
+        assertEquals(NOW + 60_000, CacheEntry.expiresAt(response(200, "Cache-Control", "max-age=60"), NOW, -1));
+        assertEquals(NOW + 50_000, CacheEntry.expiresAt(
+                response(200, "Cache-Control", "public, max-age=60", "Age", "10"), NOW, -1));
+        assertEquals(NOW, CacheEntry.expiresAt(response(200, "Cache-Control", "no-cache, max-age=60"), NOW, -1));
+    }
+
+    @Test
+    public void expiresCountsFromTheServersDate() {
+        Response response = response(200,
+                "Date", "Tue, 14 Nov 2023 22:00:00 GMT",
+                "Expires", "Tue, 14 Nov 2023 22:02:00 GMT");
+        assertEquals(NOW + 120_000, CacheEntry.expiresAt(response, NOW, -1));
+    }
+
+    @Test
+    public void methodMaxAgeWinsOverTheServer() {
+        assertEquals(NOW + 5_000, CacheEntry.expiresAt(response(200, "Cache-Control", "max-age=60"), NOW, 5));
+    }
+
+    @Test
+    public void noStoreAndVaryStarAreNotStored() {
+        assertTrue(CacheEntry.isStorable(response(200, "Cache-Control", "max-age=60")));
+        assertFalse(CacheEntry.isStorable(response(200, "Cache-Control", "private, no-store")));
+        assertFalse(CacheEntry.isStorable(response(200, "Vary", "Accept, *")));
+    }
+
+    @Test
+    public void entryMatchesTheHeadersItVariesOn() {
+        Map<String, String> sent = new HashMap<>();
+        sent.put("Accept", "application/json");
+        CacheEntry entry = entry(response(200, "Vary", "accept"), sent);
+
+        Map<String, String> same = new HashMap<>();
+        same.put("ACCEPT", "application/json");
+        Map<String, String> other = new HashMap<>();
+        other.put("Accept", "text/xml");
+        assertTrue(entry.matches(same));
+        assertFalse(entry.matches(other));
+        assertFalse(entry.matches(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void entryIsNeverServedToAnotherCaller() {
+        Map<String, String> alice = new HashMap<>();
+        alice.put("Authorization", "Bearer alice");
+        Map<String, String> bob = new HashMap<>();
+        bob.put("Authorization", "Bearer bob");
+        CacheEntry entry = entry(response(200), alice);
+
+        assertTrue(entry.matches(alice));
+        assertFalse(entry.matches(bob));
+        assertFalse(entry.matches(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void notModifiedUpdatesValidatorsAndFreshness() {
+        CacheEntry entry = entry(response(200, "ETag", "\"v1\"", "Cache-Control", "max-age=0"),
+                Collections.<String, String>emptyMap());
+        assertFalse(entry.isFresh(NOW));
+
+        CacheEntry revalidated = entry.withRevalidation(
+                response(304, "ETag", "\"v2\"", "Cache-Control", "max-age=60"), NOW, -1);
+        assertEquals("\"v2\"", revalidated.etag);
+        assertTrue(revalidated.isFresh(NOW + 59_000));
+        assertFalse(revalidated.isFresh(NOW + 60_000));
+        assertArrayEquals(entry.body, revalidated.body);
+    }
+
+    @Test
+    public void notModifiedKeepsStoredHeadersItDoesNotCarry() {
+        CacheEntry entry = entry(response(200, "ETag", "\"v1\"", "Last-Modified", "Tue, 14 Nov 2023 21:00:00 GMT",
+                "Cache-Control", "max-age=60"), Collections.<String, String>emptyMap());
+
+        CacheEntry revalidated = entry.withRevalidation(response(304), NOW, -1);
+        assertEquals("\"v1\"", revalidated.etag);
+        assertEquals("Tue, 14 Nov 2023 21:00:00 GMT", revalidated.lastModified);
+        assertEquals(NOW + 60_000, revalidated.expiresAtMillis);
+    }
+
+    @Test
+    public void entrySurvivesTheDiskFormat() throws IOException {
+        Map<String, String> sent = new LinkedHashMap<>();
+        sent.put("Accept", "application/json");
+        CacheEntry entry = entry(response(200, "ETag", "\"v1\"", "Vary", "Accept"), sent);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        entry.writeTo(new DataOutputStream(bytes));
+        CacheEntry read = CacheEntry.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(entry.url, read.url);
+        assertEquals(entry.contentType, read.contentType);
+        assertEquals(entry.headers, read.headers);
+        assertEquals(entry.expiresAtMillis, read.expiresAtMillis);
+        assertEquals(entry.varyHeaders, read.varyHeaders);
+        assertArrayEquals(entry.body, read.body);
+    }
+
+    @Test
+    public void entriesOfAnotherVersionAreIgnored() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(1);
+        assertNull(CacheEntry.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    private static CacheEntry entry(Response response, Map<String, String> requestHeaders) {
+        return new CacheEntry("http://example.com/a", "application/json", CacheEntry.storedHeaders(response),
+                CacheEntry.expiresAt(response, NOW, -1), CacheEntry.varyHeaders(response, requestHeaders),
+                "{}".getBytes());
+    }
+
+    private static Response response(int code, String... namesAndValues) {
+        Map<String, List<String>> headers = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], Arrays.asList(namesAndValues[i + 1]));
+        }
+        return new Response(code, headers, new ByteArrayInputStream(new byte[0]), null);
+    }
+}
@@ -0,0 +1,144 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.magnet.annotations.HeaderMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class CacheTest {
+
+    interface Api {
+        @GET("/fresh")
+        String fresh() throws IOException;
+
+        @GET("/etag")
+        String etag() throws IOException;
+
+        @GET("/vary")
+        String vary(@HeaderMap Map<String, String> headers) throws IOException;
+    }
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                hits.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                String body = "ok";
+                if (path.equals("/fresh")) {
+                    exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                } else if (path.equals("/etag")) {
+                    if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        notModified.incrementAndGet();
+                        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                        exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                        return;
+                    }
+                    exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                    exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+                } else {
+                    body = exchange.getRequestHeaders().getFirst("Accept");
+                    exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                    exchange.getResponseHeaders().add("Vary", "Accept");
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void freshResponseIsServedFromTheCache() throws IOException {
+        Cache cache = new Cache(1 << 20);
+        Api api = api(cache);
+
+        assertEquals("ok", api.fresh());
+        assertEquals("ok", api.fresh());
+        assertEquals("ok", api.fresh());
+        assertEquals(1, hits.get());
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void notModifiedRefreshesTheEntry() throws IOException {
+        Cache cache = new Cache(1 << 20);
+        Api api = api(cache);
+
+        assertEquals("ok", api.etag());
+        assertEquals("ok", api.etag());
+        assertEquals(2, hits.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, cache.revalidatedHitCount());
+
+        // The 304 said max-age=60, so the entry is fresh again.
+        assertEquals("ok", api.etag());
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void varySelectsTheEntry() throws IOException {
+        Api api = api(new Cache(1 << 20));
+
+        assertEquals("application/json", api.vary(Collections.singletonMap("Accept", "application/json")));
+        assertEquals("application/json", api.vary(Collections.singletonMap("Accept", "application/json")));
+        assertEquals(1, hits.get());
+        assertEquals("text/plain", api.vary(Collections.singletonMap("Accept", "text/plain")));
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void diskTierOutlivesTheMagnet() throws IOException {
+        File directory = Files.createTempDirectory("magnet-cache").toFile();
+        Cache reopened = null;
+        try {
+            assertEquals("ok", api(new Cache(1 << 20, directory, 1 << 20)).fresh());
+            reopened = new Cache(1 << 20, directory, 1 << 20);
+            assertEquals("ok", api(reopened).fresh());
+            assertEquals(1, hits.get());
+            assertEquals(1, reopened.hitCount());
+        } finally {
+            if (reopened != null) {
+                reopened.evictAll();
+            }
+            directory.delete();
+        }
+    }
+
+    private Api api(Cache cache) {
+        return new Magnet.Builder().baseUrl(baseUrl).cache(cache).build().create(Api.class);
+    }
+}
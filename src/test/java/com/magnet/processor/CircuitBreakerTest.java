@@ -0,0 +1,201 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.CircuitBreakerPolicy;
+import com.magnet.annotations.GET;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    interface Api {
+        @GET("/a")
+        HttpWorker<String> a();
+
+        @GET("/b")
+        HttpWorker<String> b();
+
+        @GET("/own")
+        @CircuitBreakerPolicy(openMillis = 1000)
+        HttpWorker<String> own();
+
+        @GET("/off")
+        @CircuitBreakerPolicy(enabled = false)
+        HttpWorker<String> off();
+    }
+
+    private static final long OPEN_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SLOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<String> changes = new ArrayList<>();
+    private final CircuitBreaker.Listener listener = new CircuitBreaker.Listener() {
+        @Override
+        public void onStateChange(String circuit, CircuitBreaker.State from, CircuitBreaker.State to) {
+            changes.add(circuit + ": " + from + " -> " + to);
+        }
+    };
+
+    @Test
+    public void opensOnceTheFailureRateReachesTheThresholdAfterMinimumCalls() throws Exception {
+        CircuitBreaker.Circuit circuit = circuit(10, 4, 2);
+        record(circuit, true);
+        record(circuit, true);
+        record(circuit, true);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+        record(circuit, false);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+        assertEquals("host: CLOSED -> OPEN", changes.get(0));
+        try {
+            circuit.acquire();
+            fail();
+        } catch (CircuitOpenException expected) {
+            assertEquals("host", expected.circuit());
+        }
+    }
+
+    @Test
+    public void staysClosedBelowTheThreshold() throws Exception {
+        CircuitBreaker.Circuit circuit = circuit(4, 4, 2);
+        for (int i = 0; i < 10; i++) {
+            record(circuit, i % 4 == 0);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+    }
+
+    @Test
+    public void oldOutcomesLeaveTheWindow() throws Exception {
+        CircuitBreaker.Circuit circuit = circuit(4, 4, 2);
+        record(circuit, true);
+        record(circuit, false);
+        record(circuit, false);
+        record(circuit, false);
+        // The failure has left the window; one new failure in four is under 50%.
+        record(circuit, true);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+        record(circuit, true);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+    }
+
+    @Test
+    public void slowCallsOpenTheCircuit() throws Exception {
+        CircuitBreaker.Circuit circuit = circuit(2, 2, 1);
+        circuit.record(circuit.acquire(), false, SLOW_NANOS);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+        circuit.record(circuit.acquire(), false, SLOW_NANOS);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+    }
+
+    @Test
+    public void halfOpenProbesCloseTheCircuit() throws Exception {
+        CircuitBreaker.Circuit circuit = openCircuit(2);
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(OPEN_NANOS) + 10);
+
+        long first = circuit.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuit.state());
+        long second = circuit.acquire();
+        try {
+            circuit.acquire();
+            fail();
+        } catch (CircuitOpenException expected) {
+        }
+        circuit.record(first, false, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuit.state());
+        circuit.record(second, false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+        assertEquals("[host: CLOSED -> OPEN, host: OPEN -> HALF_OPEN, host: HALF_OPEN -> CLOSED]",
+                changes.toString());
+
+        // The window starts over: the failures that opened the circuit are forgotten.
+        record(circuit, true);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+    }
+
+    @Test
+    public void failedProbeOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker.Circuit circuit = openCircuit(2);
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(OPEN_NANOS) + 10);
+
+        long first = circuit.acquire();
+        long second = circuit.acquire();
+        circuit.record(first, true, 0);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+        // The other probe was let through before the circuit opened again; it is not counted.
+        circuit.record(second, false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+        try {
+            circuit.acquire();
+            fail();
+        } catch (CircuitOpenException expected) {
+        }
+    }
+
+    @Test
+    public void slowProbeOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker.Circuit circuit = openCircuit(1);
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(OPEN_NANOS) + 10);
+        circuit.record(circuit.acquire(), false, SLOW_NANOS);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+    }
+
+    @Test
+    public void releasedProbeFreesItsSlot() throws Exception {
+        CircuitBreaker.Circuit circuit = openCircuit(1);
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(OPEN_NANOS) + 10);
+        circuit.release(circuit.acquire());
+        circuit.record(circuit.acquire(), false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+    }
+
+    @Test
+    public void circuitsArePerHostUnlessAMethodHasAPolicy() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker.Builder().build();
+        Magnet magnet = new Magnet.Builder().baseUrl("http://example.com").circuitBreaker(breaker).build();
+
+        ServiceMethod a = serviceMethod(magnet, "a");
+        assertSame(breaker.circuit("example.com", a), breaker.circuit("example.com", serviceMethod(magnet, "b")));
+        assertSame(breaker.circuit("example.com", a), breaker.circuit("example.com", a));
+        ServiceMethod own = serviceMethod(magnet, "own");
+        assertTrue(breaker.circuit("example.com", own) != breaker.circuit("example.com", a));
+        assertNull(breaker.circuit("example.com", serviceMethod(magnet, "off")));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state("example.com"));
+    }
+
+    @Test
+    public void perMethodGivesEachMethodACircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker.Builder().perMethod(true).build();
+        Magnet magnet = new Magnet.Builder().baseUrl("http://example.com").circuitBreaker(breaker).build();
+        assertTrue(breaker.circuit("example.com", serviceMethod(magnet, "a"))
+                != breaker.circuit("example.com", serviceMethod(magnet, "b")));
+    }
+
+    private CircuitBreaker.Circuit circuit(int windowSize, int minimumCalls, int halfOpenCalls) {
+        CircuitBreaker.Settings settings = new CircuitBreaker.Settings(50, 100, SLOW_NANOS, windowSize, minimumCalls,
+                OPEN_NANOS, halfOpenCalls);
+        return new CircuitBreaker.Circuit("host", settings, listener);
+    }
+
+    private CircuitBreaker.Circuit openCircuit(int halfOpenCalls) throws CircuitOpenException {
+        CircuitBreaker.Circuit circuit = circuit(2, 2, halfOpenCalls);
+        record(circuit, true);
+        record(circuit, true);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+        return circuit;
+    }
+
+    private static void record(CircuitBreaker.Circuit circuit, boolean failed) throws CircuitOpenException {
+        circuit.record(circuit.acquire(), failed, 0);
+    }
+
+    private static ServiceMethod serviceMethod(Magnet magnet, String name) throws NoSuchMethodException {
+        return new ServiceMethod.Builder(magnet, Api.class.getDeclaredMethod(name)).build();
+    }
+}
@@ -0,0 +1,32 @@
+package com.magnet.processor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConnectionPoolTest {
+
+    @Test
+    public void plainRequestsAreCountedApart() {
+        ConnectionPool pool = new ConnectionPool();
+        pool.trackRequest("https://example.com/a");
+        pool.trackRequest("HTTPS://example.com/b");
+        pool.trackRequest("http://example.com/c");
+
+        assertEquals(2, pool.requestCount());
+        assertEquals(1, pool.plainRequestCount());
+        assertEquals(0, pool.connectionCount());
+        assertEquals(2, pool.reusedConnectionCount());
+    }
+
+    @Test
+    public void newConnectionsAreNotReused() throws Exception {
+        ConnectionPool pool = new ConnectionPool();
+        pool.trackRequest("https://example.com/a");
+        pool.trackRequest("https://example.com/b");
+        pool.sslContext().createSSLEngine("example.com", 443);
+
+        assertEquals(1, pool.connectionCount());
+        assertEquals(1, pool.reusedConnectionCount());
+    }
+}
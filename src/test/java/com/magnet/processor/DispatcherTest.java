@@ -0,0 +1,139 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DispatcherTest {
+
+    interface Api {
+        @GET("/x")
+        HttpWorker<String> x();
+
+        @GET("/x")
+        CompletableFuture<String> xAsync();
+    }
+
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = concurrent.incrementAndGet();
+                maxConcurrent.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                concurrent.decrementAndGet();
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void callsOverThePerHostLimitWaitInTheQueue() throws Exception {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(2);
+        Api api = api(dispatcher);
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            calls.add(api.xAsync());
+        }
+        assertEquals(2, dispatcher.runningCallsCount());
+        assertEquals(4, dispatcher.queuedCallsCount());
+        for (CompletableFuture<String> call : calls) {
+            assertEquals("ok", call.get());
+        }
+        assertEquals(2, maxConcurrent.get());
+    }
+
+    @Test
+    public void rejectedCallFailsOutsideTheDispatcherLock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        final Dispatcher dispatcher = new Dispatcher(executor);
+        final AtomicBoolean heldLock = new AtomicBoolean();
+        final CountDownLatch failed = new CountDownLatch(1);
+
+        api(dispatcher).x().execute(String.class, new CallBack<String>() {
+            @Override
+            public void successResponse(int responseCode, String s) {
+            }
+
+            @Override
+            public void failureResponse(Exception ex) {
+                heldLock.set(Thread.holdsLock(dispatcher));
+                assertTrue(ex instanceof RejectedExecutionException);
+                failed.countDown();
+            }
+
+            @Override
+            public void offline() {
+            }
+        });
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertFalse(heldLock.get());
+        assertEquals(0, dispatcher.runningCallsCount());
+    }
+
+    @Test
+    public void rejectedCallCompletesItsFuture() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        try {
+            api(new Dispatcher(executor)).xAsync().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private Api api(Dispatcher dispatcher) {
+        return new Magnet.Builder().baseUrl(baseUrl).dispatcher(dispatcher).build().create(Api.class);
+    }
+}
@@ -0,0 +1,227 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.Destination;
+import com.magnet.annotations.GET;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileDownloadTest {
+
+    interface Api {
+        @GET("/file")
+        File download(@Destination File file) throws IOException;
+    }
+
+    private final byte[] data = new byte[300_000];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean cut = new AtomicBoolean();
+    private volatile String etag = "\"v1\"";
+    private HttpServer server;
+    private Path dir;
+    private Path target;
+    private Api api;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+        dir = Files.createTempDirectory("download");
+        target = dir.resolve("file.bin");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                ranges.add(range + " " + ifRange);
+                int start = 0;
+                if (range != null && etag.equals(ifRange)) {
+                    start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                }
+                exchange.getResponseHeaders().add("ETag", etag);
+                int length = data.length - start;
+                if (start > 0) {
+                    exchange.getResponseHeaders().add("Content-Range",
+                            "bytes " + start + "-" + (data.length - 1) + "/" + data.length);
+                    exchange.sendResponseHeaders(206, length);
+                } else {
+                    exchange.sendResponseHeaders(200, length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                if (cut.getAndSet(false)) {
+                    out.write(data, start, length / 3);
+                    out.flush();
+                    throw new IOException("cut");
+                }
+                out.write(data, start, length);
+                exchange.close();
+            }
+        });
+        server.start();
+        api = new Magnet.Builder()
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .build()
+                .create(Api.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        for (File file : dir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void newDownloadAsksForTheWholeFile() throws IOException {
+        FileDownload download = new FileDownload(target);
+        assertFalse(download.isResuming());
+        assertEquals(Collections.singletonMap("Accept-Encoding", "identity"), download.requestHeaders());
+    }
+
+    @Test
+    public void partWithValidatorIsResumed() throws IOException {
+        Files.write(part(), new byte[100]);
+        Files.write(meta(), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+        FileDownload download = new FileDownload(target);
+        assertTrue(download.isResuming());
+        assertEquals("bytes=100-", download.requestHeaders().get("Range"));
+        assertEquals("\"v1\"", download.requestHeaders().get("If-Range"));
+    }
+
+    @Test
+    public void partWithoutValidatorIsDiscarded() throws IOException {
+        Files.write(part(), new byte[100]);
+        FileDownload download = new FileDownload(target);
+        assertFalse(download.isResuming());
+        assertFalse(Files.exists(part()));
+        assertNull(download.requestHeaders().get("Range"));
+    }
+
+    @Test
+    public void partialContentIsAppended() throws IOException {
+        Files.write(part(), Arrays.copyOf(data, 100));
+        Files.write(meta(), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+        FileDownload download = new FileDownload(target);
+        download.writeFrom(response(206, "bytes 100-" + (data.length - 1) + "/" + data.length, "\"v1\"", 100), null);
+        download.complete();
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertFalse(Files.exists(meta()));
+    }
+
+    @Test
+    public void fullResponseWhileResumingStartsOver() throws IOException {
+        Files.write(part(), new byte[100]);
+        Files.write(meta(), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+        FileDownload download = new FileDownload(target);
+        download.writeFrom(response(200, null, "\"v2\"", 0), null);
+        assertArrayEquals(data, Files.readAllBytes(part()));
+        assertEquals("\"v2\"", new String(Files.readAllBytes(meta()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unexpectedRangeIsRejected() throws IOException {
+        Files.write(part(), new byte[100]);
+        Files.write(meta(), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+        FileDownload download = new FileDownload(target);
+        try {
+            download.writeFrom(response(206, "bytes 50-" + (data.length - 1) + "/" + data.length, "\"v1\"", 50), null);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void weakETagFallsBackToLastModified() throws IOException {
+        FileDownload download = new FileDownload(target);
+        Map<String, List<String>> headers = new TreeMap<>();
+        headers.put("ETag", Collections.singletonList("W/\"v1\""));
+        headers.put("Last-Modified", Collections.singletonList("Tue, 15 Nov 1994 12:45:26 GMT"));
+        download.writeFrom(new Response(200, headers, new ByteArrayInputStream(data), null), null);
+        assertEquals("Tue, 15 Nov 1994 12:45:26 GMT", new String(Files.readAllBytes(meta()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void interruptedDownloadResumesWithRange() throws IOException {
+        cut.set(true);
+        try {
+            api.download(target.toFile());
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(Files.exists(target));
+        long partSize = Files.size(part());
+        assertTrue(partSize > 0);
+
+        api.download(target.toFile());
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals("null null", ranges.get(0));
+        assertEquals("bytes=" + partSize + "- \"v1\"", ranges.get(1));
+        assertFalse(Files.exists(part()));
+        assertFalse(Files.exists(meta()));
+    }
+
+    @Test
+    public void changedResourceIsDownloadedAgain() throws IOException {
+        cut.set(true);
+        try {
+            api.download(target.toFile());
+            fail();
+        } catch (IOException expected) {
+        }
+        etag = "\"v2\"";
+        data[0] ^= 1;
+
+        api.download(target.toFile());
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertTrue(ranges.get(1).endsWith(" \"v1\""));
+    }
+
+    private Path part() {
+        return dir.resolve("file.bin.part");
+    }
+
+    private Path meta() {
+        return dir.resolve("file.bin.part.meta");
+    }
+
+    private Response response(int code, String contentRange, String etag, int start) {
+        Map<String, List<String>> headers = new TreeMap<>();
+        headers.put("ETag", Collections.singletonList(etag));
+        headers.put("Content-Length", Collections.singletonList(String.valueOf(data.length - start)));
+        if (contentRange != null) {
+            headers.put("Content-Range", Collections.singletonList(contentRange));
+        }
+        return new Response(code, headers, new ByteArrayInputStream(data, start, data.length - start), null);
+    }
+}
@@ -0,0 +1,92 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class HedgingTest {
+
+    interface Api {
+        @GET("/x")
+        CompletableFuture<String> x();
+    }
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int n = hits.incrementAndGet();
+                if (n == 1) {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] body = Integer.toString(n).getBytes("UTF-8");
+                try {
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                } catch (IOException ignored) {
+                    // The hedge won and the first request was cancelled.
+                }
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void slowCallIsHedged() throws Exception {
+        Hedging hedging = new Hedging.Builder().delay(50, TimeUnit.MILLISECONDS).build();
+        Api api = new Magnet.Builder().baseUrl(baseUrl).hedging(hedging).build().create(Api.class);
+
+        assertEquals("2", api.x().get());
+        assertEquals(1, hedging.hedgeCount());
+        assertEquals(1, hedging.hedgeWinCount());
+    }
+
+    @Test
+    public void hedgesRespectTheDispatcherLimits() throws Exception {
+        Hedging hedging = new Hedging.Builder().delay(50, TimeUnit.MILLISECONDS).build();
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(1);
+        Api api = new Magnet.Builder()
+                .baseUrl(baseUrl)
+                .dispatcher(dispatcher)
+                .hedging(hedging)
+                .build()
+                .create(Api.class);
+
+        assertEquals("1", api.x().get());
+        assertEquals(0, hedging.hedgeCount());
+        assertEquals(1, hits.get());
+    }
+}
@@ -0,0 +1,85 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.magnet.annotations.Path;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HttpClientTransportTest {
+
+    interface Api {
+        @GET("/trickle/{pauseMillis}")
+        String trickle(@Path("pauseMillis") int pauseMillis) throws IOException;
+    }
+
+    private HttpServer server;
+    private Api api;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                long pauseMillis = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+                exchange.sendResponseHeaders(200, 5);
+                OutputStream body = exchange.getResponseBody();
+                try {
+                    for (int i = 0; i < 5; i++) {
+                        body.write('x');
+                        body.flush();
+                        Thread.sleep(pauseMillis);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException ignored) {
+                    // The client gave up.
+                }
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        api = new Magnet.Builder()
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .transport(new HttpClientTransport())
+                .readTimeout(300, TimeUnit.MILLISECONDS)
+                .build()
+                .create(Api.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void readTimeoutAppliesToEachPauseInTheBody() throws IOException {
+        assertEquals("xxxxx", api.trickle(100));
+    }
+
+    @Test
+    public void stalledBodyTimesOut() throws IOException {
+        try {
+            api.trickle(1000);
+            fail();
+        } catch (SocketTimeoutException expected) {
+        }
+    }
+}
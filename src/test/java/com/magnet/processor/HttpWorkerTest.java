@@ -0,0 +1,95 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpWorkerTest {
+
+    interface Api {
+        @GET("/ok")
+        HttpWorker<String> ok();
+    }
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void cancelAfterCompletionLeavesTheExchangeAlone() throws IOException {
+        final AtomicInteger cancels = new AtomicInteger();
+        final Transport transport = new HttpUrlConnectionTransport();
+        Transport counting = new Transport() {
+            @Override
+            public Exchange newExchange(Request request) throws IOException {
+                final Exchange exchange = transport.newExchange(request);
+                return new Exchange() {
+                    @Override
+                    public void connect() throws IOException {
+                        exchange.connect();
+                    }
+
+                    @Override
+                    public void writeRequest() throws IOException {
+                        exchange.writeRequest();
+                    }
+
+                    @Override
+                    public Response readResponse() throws IOException {
+                        return exchange.readResponse();
+                    }
+
+                    @Override
+                    public void cancel() {
+                        cancels.incrementAndGet();
+                        exchange.cancel();
+                    }
+                };
+            }
+        };
+        Api api = new Magnet.Builder().baseUrl(baseUrl).transport(counting).build().create(Api.class);
+
+        HttpWorker<String> call = api.ok();
+        assertEquals("ok", call.execute());
+        call.cancel();
+        assertEquals(0, cancels.get());
+
+        assertEquals("ok", api.ok().execute());
+        assertEquals(1, clientPorts.size());
+    }
+}
@@ -0,0 +1,139 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InFlightCallsTest {
+
+    interface Api {
+        @GET("/slow")
+        HttpWorker<String> slow();
+    }
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final CountDownLatch arrived = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer server;
+    private Api api;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Hold the first request until the test lets it go.
+                if (hits.incrementAndGet() == 1) {
+                    arrived.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                byte[] body = "ok".getBytes("UTF-8");
+                try {
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        Magnet magnet = new Magnet.Builder()
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .coalesceRequests(true)
+                .build();
+        api = magnet.create(Api.class);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void identicalCallsShareOneRequest() throws Exception {
+        CompletableFuture<String> leader = api.slow().executeAsync();
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> first = api.slow().executeAsync();
+        CompletableFuture<String> second = api.slow().executeAsync();
+        release.countDown();
+
+        assertEquals("ok", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("ok", first.get(5, TimeUnit.SECONDS));
+        assertEquals("ok", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void cancelledFollowerFailsAlone() throws Exception {
+        CompletableFuture<String> leader = api.slow().executeAsync();
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        HttpWorker<String> follower = api.slow();
+        CompletableFuture<String> cancelled = follower.executeAsync();
+        CompletableFuture<String> other = api.slow().executeAsync();
+
+        follower.cancel();
+        assertCanceled(cancelled);
+        release.countDown();
+
+        assertEquals("ok", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("ok", other.get(5, TimeUnit.SECONDS));
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void cancelledLeaderHandsTheFlightToAFollower() throws Exception {
+        HttpWorker<String> leader = api.slow();
+        CompletableFuture<String> cancelled = leader.executeAsync();
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> first = api.slow().executeAsync();
+        CompletableFuture<String> second = api.slow().executeAsync();
+
+        leader.cancel();
+        assertCanceled(cancelled);
+
+        assertEquals("ok", first.get(5, TimeUnit.SECONDS));
+        assertEquals("ok", second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void callsAfterTheFlightEndsGoToTheNetwork() throws Exception {
+        release.countDown();
+        assertEquals("ok", api.slow().executeAsync().get(5, TimeUnit.SECONDS));
+        assertEquals("ok", api.slow().executeAsync().get(5, TimeUnit.SECONDS));
+        assertEquals(2, hits.get());
+    }
+
+    private static void assertCanceled(CompletableFuture<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.magnet.processor;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveABucketEach() {
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, LatencyHistogram.index(i));
+            assertEquals(i, LatencyHistogram.highestValue(i));
+        }
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        assertEquals(16, LatencyHistogram.index(16));
+        assertEquals(31, LatencyHistogram.index(31));
+        assertEquals(32, LatencyHistogram.index(32));
+        assertEquals(32, LatencyHistogram.index(33));
+        assertEquals(33, LatencyHistogram.index(34));
+        assertEquals(33, LatencyHistogram.highestValue(32));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void everyValueFallsInItsBucketWithinOneSixteenth() {
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            assertBucketHolds(value);
+        }
+        for (int shift = 0; shift < 63; shift++) {
+            assertBucketHolds((1L << shift) - 1);
+            assertBucketHolds(1L << shift);
+            assertBucketHolds((1L << shift) + 1);
+        }
+        assertBucketHolds(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.p50());
+        assertEquals(0, histogram.max());
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.max());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(500), histogram.p50());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(990), histogram.p99());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(999), histogram.p999());
+        assertEquals(histogram.max(), histogram.percentile(100));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(1), histogram.percentile(0));
+    }
+
+    @Test
+    public void percentileNeverExceedsTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.p999());
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.p50());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = (t + 1) * 1000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10_000; i++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40_000, histogram.count());
+        assertEquals(4000, histogram.max());
+        assertEquals(4000, histogram.percentile(100));
+    }
+
+    private static void assertBucketHolds(long value) {
+        int index = LatencyHistogram.index(value);
+        long highest = LatencyHistogram.highestValue(index);
+        assertTrue(value + " above bucket " + index, value <= highest);
+        if (index > 0) {
+            assertTrue(value + " below bucket " + index, value > LatencyHistogram.highestValue(index - 1));
+        }
+        assertTrue(value + " bucket too wide", (highest - value) <= value / 16);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual - expected <= expected / 16);
+    }
+}
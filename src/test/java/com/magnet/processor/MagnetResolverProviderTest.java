@@ -0,0 +1,65 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MagnetResolverProviderTest {
+
+    interface Api {
+        @GET("/ok")
+        String ok() throws IOException;
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void magnetsWithDifferentDnsShareAHostWithoutTheProvider() throws IOException {
+        assertFalse(MagnetResolverProvider.installed());
+        Magnet first = new Magnet.Builder()
+                .baseUrl(baseUrl)
+                .dns(new StaticDns().put("localhost", "127.0.0.1"))
+                .build();
+        Magnet second = new Magnet.Builder()
+                .baseUrl(baseUrl)
+                .dns(new StaticDns().put("localhost", "127.0.0.1"))
+                .build();
+
+        assertEquals("ok", first.create(Api.class).ok());
+        assertEquals("ok", second.create(Api.class).ok());
+        assertEquals("ok", first.create(Api.class).ok());
+    }
+}
@@ -0,0 +1,211 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.magnet.annotations.RateLimit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimiterTest {
+
+    interface Api {
+        @GET("/fresh")
+        String fresh() throws IOException;
+
+        @GET("/fresh")
+        CompletableFuture<String> freshAsync();
+
+        @GET("/other")
+        String other() throws IOException;
+
+        @GET("/limited")
+        @RateLimit(permitsPerSecond = 10, failFast = true)
+        String limited() throws IOException;
+    }
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                hits.incrementAndGet();
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void freshCacheHitsTakeNoPermit() throws Exception {
+        RateLimiter limiter = new RateLimiter.Builder().defaultLimit(0.01, 1).failFast(true).build();
+        Magnet magnet = new Magnet.Builder()
+                .baseUrl(baseUrl)
+                .cache(new Cache(1 << 20))
+                .rateLimiter(limiter)
+                .build();
+        Api api = magnet.create(Api.class);
+
+        assertEquals("ok", api.fresh());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ok", api.fresh());
+            assertEquals("ok", api.freshAsync().get());
+        }
+        assertEquals(1, hits.get());
+        try {
+            api.other();
+            fail();
+        } catch (RateLimitedException expected) {
+        }
+    }
+
+    @Test
+    public void burstIsFreeThenCallsArePaced() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("host", 10, 3, false, RateLimiter.DEFAULT_MAX_WAIT_NANOS);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(INTERVAL, bucket.reserve(now));
+        assertEquals(2 * INTERVAL, bucket.reserve(now));
+    }
+
+    @Test
+    public void bucketRefillsOnePermitPerInterval() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("host", 10, 3, false, RateLimiter.DEFAULT_MAX_WAIT_NANOS);
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            bucket.reserve(now);
+        }
+        long later = now + INTERVAL + INTERVAL / 2;
+        assertEquals(0, bucket.reserve(later));
+        assertEquals(INTERVAL / 2, bucket.reserve(later));
+    }
+
+    @Test
+    public void idleBucketRefillsNoMoreThanTheBurst() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("host", 10, 3, false, RateLimiter.DEFAULT_MAX_WAIT_NANOS);
+        long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        assertEquals(0, bucket.reserve(later));
+        assertEquals(0, bucket.reserve(later));
+        assertEquals(0, bucket.reserve(later));
+        assertEquals(INTERVAL, bucket.reserve(later));
+    }
+
+    @Test
+    public void failFastBucketThrowsWithoutTakingAPermit() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("host", 10, 1, true, RateLimiter.DEFAULT_MAX_WAIT_NANOS);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(now));
+        for (int i = 0; i < 2; i++) {
+            try {
+                bucket.reserve(now);
+                fail();
+            } catch (RateLimitedException expected) {
+                assertEquals("host", expected.limit());
+                assertEquals(100, expected.retryAfterMillis());
+            }
+        }
+        assertEquals(0, bucket.reserve(now + INTERVAL));
+    }
+
+    @Test
+    public void waitOverMaxWaitThrows() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("host", 10, 1, false, INTERVAL);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(INTERVAL, bucket.reserve(now));
+        try {
+            bucket.reserve(now);
+            fail();
+        } catch (RateLimitedException expected) {
+            assertEquals(200, expected.retryAfterMillis());
+        }
+    }
+
+    @Test
+    public void refundGivesThePermitBack() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("host", 10, 1, false, RateLimiter.DEFAULT_MAX_WAIT_NANOS);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(now));
+        bucket.refund();
+        assertEquals(0, bucket.reserve(now));
+    }
+
+    @Test
+    public void pauseHoldsCallsBackUntilItEnds() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("host", 0, 1, false, RateLimiter.DEFAULT_MAX_WAIT_NANOS);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(now));
+        bucket.pause(now + 5 * INTERVAL);
+        bucket.pause(now + INTERVAL);
+        assertEquals(5 * INTERVAL, bucket.reserve(now));
+        assertEquals(0, bucket.reserve(now + 5 * INTERVAL));
+    }
+
+    @Test
+    public void methodLimitOverHostLimitRefundsTheHostPermit() throws Exception {
+        RateLimiter limiter = new RateLimiter.Builder().defaultLimit(10, 1).build();
+        Magnet magnet = new Magnet.Builder().baseUrl(baseUrl).rateLimiter(limiter).build();
+        ServiceMethod limited = new ServiceMethod.Builder(magnet, Api.class.getDeclaredMethod("limited")).build();
+        ServiceMethod other = new ServiceMethod.Builder(magnet, Api.class.getDeclaredMethod("other")).build();
+
+        assertEquals(0, RateLimiter.reserve(limiter, "a", limited));
+        RateLimiter.reserve(limiter, "b", other);
+        try {
+            RateLimiter.reserve(limiter, "b", limited);
+            fail();
+        } catch (RateLimitedException expected) {
+            assertEquals(limited.toString(), expected.limit());
+        }
+        // Only the permit taken for "other" is owed on host "b".
+        long waitNanos = RateLimiter.reserve(limiter, "b", other);
+        assertTrue(waitNanos > 0 && waitNanos <= INTERVAL);
+    }
+
+    @Test
+    public void hostsWithoutALimitTakeNoPermit() throws Exception {
+        RateLimiter limiter = new RateLimiter.Builder().limit("api.example.com", 0.01, 1).failFast(true).build();
+        Magnet magnet = new Magnet.Builder().baseUrl(baseUrl).rateLimiter(limiter).build();
+        ServiceMethod other = new ServiceMethod.Builder(magnet, Api.class.getDeclaredMethod("other")).build();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, RateLimiter.reserve(limiter, "127.0.0.1", other));
+        }
+        assertEquals(0, RateLimiter.reserve(limiter, "API.example.com", other));
+        try {
+            RateLimiter.reserve(limiter, "API.example.com", other);
+            fail();
+        } catch (RateLimitedException expected) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.magnet.processor;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void budgetSavesUpTenRetries() {
+        RetryPolicy policy = new RetryPolicy.Builder().build();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryRetry());
+        }
+        assertFalse(policy.tryRetry());
+        assertEquals(10, policy.retryCount());
+        assertEquals(1, policy.budgetExhaustedCount());
+    }
+
+    @Test
+    public void callsEarnTheirShareOfARetry() {
+        RetryPolicy policy = new RetryPolicy.Builder().budget(20).build();
+        drain(policy);
+        for (int i = 0; i < 4; i++) {
+            policy.deposit();
+        }
+        assertFalse(policy.tryRetry());
+        policy.deposit();
+        assertTrue(policy.tryRetry());
+        assertFalse(policy.tryRetry());
+    }
+
+    @Test
+    public void depositsStopAtTheCap() {
+        RetryPolicy policy = new RetryPolicy.Builder().budget(100).build();
+        for (int i = 0; i < 100; i++) {
+            policy.deposit();
+        }
+        assertEquals(10, drain(policy));
+    }
+
+    @Test
+    public void refundGivesTheRetryBack() {
+        RetryPolicy policy = new RetryPolicy.Builder().build();
+        drain(policy);
+        policy.refund();
+        assertEquals(9, policy.retryCount());
+        assertTrue(policy.tryRetry());
+        assertEquals(10, policy.retryCount());
+    }
+
+    @Test
+    public void overridesShareTheBudget() {
+        RetryPolicy policy = new RetryPolicy.Builder().build();
+        RetryPolicy override = policy.withOverrides(5, -1, -1);
+        assertEquals(5, override.maxAttempts());
+        drain(override);
+        assertFalse(policy.tryRetry());
+    }
+
+    @Test
+    public void backoffStaysUnderTheDoublingCeiling() {
+        RetryPolicy policy = new RetryPolicy.Builder().backoff(100, 400, TimeUnit.MILLISECONDS).build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.backoffNanos(1, 0) <= TimeUnit.MILLISECONDS.toNanos(100));
+            assertTrue(policy.backoffNanos(2, 0) <= TimeUnit.MILLISECONDS.toNanos(200));
+            assertTrue(policy.backoffNanos(10, 0) <= TimeUnit.MILLISECONDS.toNanos(400));
+        }
+    }
+
+    @Test
+    public void retryAfterLongerThanTheMaximumEndsTheRetries() {
+        RetryPolicy policy = new RetryPolicy.Builder().backoff(100, 400, TimeUnit.MILLISECONDS).build();
+        long retryAfter = TimeUnit.MILLISECONDS.toNanos(300);
+        assertTrue(policy.backoffNanos(1, retryAfter) >= retryAfter);
+        assertEquals(-1, policy.backoffNanos(1, TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private static int drain(RetryPolicy policy) {
+        int retries = 0;
+        while (policy.tryRetry()) {
+            retries++;
+        }
+        return retries;
+    }
+}
@@ -0,0 +1,81 @@
+package com.magnet.processor;
+
+import com.magnet.annotations.GET;
+import com.magnet.annotations.Path;
+import com.magnet.annotations.Query;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServiceMethodTest {
+
+    interface Api {
+        @GET("/users/{id}/posts/{post}")
+        HttpWorker<String> post(@Path("id") String id, @Path("post") int post, @Query("sort") String sort);
+
+        @GET("/users/{id}/friends/{id}")
+        HttpWorker<String> twice(@Path("id") String id);
+
+        @GET("/users/{id}/posts/{post}")
+        HttpWorker<String> unbound(@Path("id") String id);
+    }
+
+    private final Magnet magnet = new Magnet.Builder().baseUrl("http://example.com").build();
+
+    @Test
+    public void pathAndQueryValuesAreEncoded() throws Exception {
+        ServiceMethod method = serviceMethod("post", String.class, int.class, String.class);
+        RequestBuilder builder = method.toRequestBuilder(new Object[] {"a/b", 7, "name desc"});
+        assertEquals("http://example.com/users/a%2Fb/posts/7?sort=name+desc", builder.url());
+    }
+
+    @Test
+    public void placeholderUsedTwiceTakesOneValue() throws Exception {
+        ServiceMethod method = serviceMethod("twice", String.class);
+        assertEquals("http://example.com/users/42/friends/42", method.toRequestBuilder(new Object[] {"42"}).url());
+    }
+
+    @Test
+    public void unboundPlaceholderFailsWhenTheMethodIsBuilt() throws Exception {
+        try {
+            serviceMethod("unbound", String.class);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("{post}"));
+        }
+    }
+
+    @Test
+    public void unboundPlaceholderFailsOnTheBuilder() {
+        ServiceMethod.Builder builder = new ServiceMethod.Builder(magnet, Api.class, "manual")
+                .get("/users/{id}")
+                .returnType(String.class);
+        try {
+            builder.build();
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("{id}"));
+        }
+    }
+
+    @Test
+    public void unknownPlaceholderFailsOnTheBuilder() {
+        try {
+            new ServiceMethod.Builder(magnet, Api.class, "manual").get("/users/{id}").path("name", String.class);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullPathValueIsRejected() throws Exception {
+        serviceMethod("post", String.class, int.class, String.class).toRequestBuilder(new Object[] {null, 7, null});
+    }
+
+    private ServiceMethod serviceMethod(String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        return new ServiceMethod.Builder(magnet, Api.class.getDeclaredMethod(name, parameterTypes)).build();
+    }
+}
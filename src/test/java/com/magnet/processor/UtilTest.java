@@ -0,0 +1,36 @@
+package com.magnet.processor;
+
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+
+public class UtilTest {
+
+    @Test
+    public void toUrlParsesAbsoluteUrls() throws MalformedURLException {
+        URL url = Util.toUrl("https://api.example.com:8443/users/42?q=a%20b#top");
+        assertEquals("https", url.getProtocol());
+        assertEquals("api.example.com", url.getHost());
+        assertEquals(8443, url.getPort());
+        assertEquals("/users/42", url.getPath());
+        assertEquals("q=a%20b", url.getQuery());
+    }
+
+    @Test(expected = MalformedURLException.class)
+    public void toUrlRejectsUnencodedSpaces() throws MalformedURLException {
+        Util.toUrl("http://example.com/a b");
+    }
+
+    @Test(expected = MalformedURLException.class)
+    public void toUrlRejectsRelativeUrls() throws MalformedURLException {
+        Util.toUrl("/users/42");
+    }
+
+    @Test(expected = MalformedURLException.class)
+    public void toUrlRejectsUnknownSchemes() throws MalformedURLException {
+        Util.toUrl("unknown://example.com/");
+    }
+}